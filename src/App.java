@@ -1,7 +1,9 @@
+import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.Thread;
 import java.net.DatagramSocket;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
 import java.util.function.Function;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.Scanner;
@@ -22,6 +24,7 @@ public class App {
 	private static String pocHost;
 	private static int pocPort;
 	private static int n;
+	private static RingoConfig config;
 	private static LinkedBlockingQueue<String> userCommandList;
 	
 	private static DatagramSocket socket;
@@ -37,26 +40,31 @@ public class App {
 			System.exit(1);
 		}
 
-		System.out.println(String.format("Provided Arguments: Role: %s\tLocal Port: %d\tPoC: %s:%d\tN: %d\n",
-				role.toString(), port, pocHost, pocPort, n));
+		System.out.println(String.format("Provided Arguments: Role: %s\tLocal Port: %d\tPoC: %s:%d\tN: %d\tOptions: %s\n",
+				role.toString(), port, pocHost, pocPort, n, config));
 
 		try {
-			socket = new DatagramSocket(port);
-		} catch(SocketException e) {
+			if (config.getTransport() == RingoConfig.Transport.NIO) {
+				// Ringo drives the channel behind this socket through a Selector
+				socket = DatagramChannel.open().bind(new InetSocketAddress(port)).socket();
+			} else {
+				socket = new DatagramSocket(port);
+			}
+		} catch(IOException e) {
 			String errmsg = String.format("Could not bind to port %d. Exiting (1)\n%s", port, e.getMessage());
 			System.err.println(errmsg);
 			System.exit(1);
 		}
 
-		Thread ringoThread = new Thread(new Ringo(role, port, pocHost, pocPort, n, socket, userCommandList));
+		Thread ringoThread = new Thread(new Ringo(role, port, pocHost, pocPort, n, socket, userCommandList, config));
 		ringoThread.start();
 		// Scanner scanner = new Scanner(System.in);
 		// int numCommands = userCommandList.size();
-		while (ringoThread.isAlive()) {
-			// userCommandList.add(command);
-			// if (numCommands > userCommandList.size()) {
-				// System.out.println("Sorry but the system is busy processing another command. Try again later.");
-			// }
+		try {
+			// nothing else runs on this thread, so sleep until Ringo is done
+			ringoThread.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
 		}
 		// scanner.close();
 		
@@ -83,6 +91,7 @@ public class App {
 				&& (i <= MAX_PORT)
 		);
 		n = intchecker.check(args[4], "Given N isn't valid", (Integer i) -> i > 0);
+		config = RingoConfig.parse(args, NUM_ARGS);
 	}
 
 	/**
@@ -91,12 +100,14 @@ public class App {
 	 */
 	private static void printHelp(PrintStream stream) {
 		stream.println("Runtime Arguments:");
-		stream.println("java Ringo <Role> <Local Port> <PoC Hostname> <PoC Port> <N>");
+		stream.println("java Ringo <Role> <Local Port> <PoC Hostname> <PoC Port> <N> [option=value ...]");
 		stream.println("- Role: Sets this Ringo to be either a (S)ender, (R)eceiver, or a (F)orwarder");
 		stream.println("- PoC Hostname: The Hostname of the Point of Contact. Set to 0 if no PoC");
 		stream.println("- PoC Port: Port to use while contacting the PoC. Set to 0 if no PoC");
 		stream.println("- N: Number of Ringos in the mesh");
 		stream.println("");
+		RingoConfig.printHelp(stream);
+		stream.println("");
 	}
 }
 
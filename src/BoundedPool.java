@@ -0,0 +1,42 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * A fixed-capacity pool of reusable objects.
+ *
+ * acquire() hands out a pooled object, or a new one when the pool is empty.
+ * release() returns an object to the pool, and simply drops it when the pool
+ * is already full, so the pool never grows past its capacity.
+ *
+ * Neither call allocates once the pool is warm, and both are safe to call
+ * from different threads.
+ *
+ * @param <T> Type of pooled object
+ */
+public class BoundedPool<T> {
+	private ArrayBlockingQueue<T> free;
+	private Supplier<T> supplier;
+
+	/**
+	 * @param capacity Maximum number of idle objects kept around
+	 * @param supplier Creates a new object when the pool is empty
+	 */
+	public BoundedPool(int capacity, Supplier<T> supplier) {
+		this.free = new ArrayBlockingQueue<T>(capacity);
+		this.supplier = supplier;
+	}
+
+	public T acquire() {
+		T item = free.poll();
+		return (item != null) ? item : supplier.get();
+	}
+
+	/**
+	 * Returns an object to the pool. The caller must not use it afterwards.
+	 * @param item Object previously handed out by acquire()
+	 */
+	public void release(T item) {
+		if (item != null)
+			free.offer(item);
+	}
+}
@@ -0,0 +1,89 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Deflates and inflates single DATA chunks. Every chunk is compressed on its
+ * own, so it can be checked, forwarded and written without its neighbours.
+ *
+ * Not thread-safe; each WorkerThread keeps its own.
+ */
+public class ChunkCompressor {
+	/** A file is only compressed if its sample chunk shrinks by at least this fraction */
+	public static final double MIN_SAVING = 0.1;
+
+	private Deflater deflater;
+	private Inflater inflater;
+	private byte[] input;
+	private byte[] output;
+
+	public ChunkCompressor() {
+		this.deflater = new Deflater(Deflater.BEST_SPEED);
+		this.inflater = new Inflater();
+		this.input = new byte[0];
+		this.output = new byte[0];
+	}
+
+	/**
+	 * Compresses a sample chunk to decide whether a file is worth compressing at all
+	 * @param sample A chunk of the file, usually the first one
+	 * @return true if the sample shrank by at least MIN_SAVING
+	 */
+	public boolean isWorthwhile(ByteBuffer sample) {
+		ByteBuffer packed = compress(sample);
+		return packed != null && packed.remaining() <= sample.remaining() * (1 - MIN_SAVING);
+	}
+
+	/**
+	 * @param chunk Uncompressed chunk; its position and limit are left untouched
+	 * @return The deflated chunk, or null if deflating didn't make it smaller
+	 */
+	public ByteBuffer compress(ByteBuffer chunk) {
+		int length = chunk.remaining();
+		if (input.length < length) {
+			input = new byte[length];
+			output = new byte[length];
+		}
+		chunk.duplicate().get(input, 0, length);
+
+		deflater.reset();
+		deflater.setInput(input, 0, length);
+		deflater.finish();
+		int packedLength = deflater.deflate(output, 0, length);
+		if (!deflater.finished() || packedLength >= length)
+			return null;
+
+		return ByteBuffer.wrap(Arrays.copyOf(output, packedLength));
+	}
+
+	/**
+	 * Inflates a chunk into a buffer owned by this compressor
+	 * @param packed Deflated chunk; its position and limit are left untouched
+	 * @param length Length of the chunk before it was compressed
+	 * @return The inflated chunk, only valid until the next call
+	 * @throws ZipException if the chunk doesn't inflate to exactly length bytes
+	 */
+	public ByteBuffer decompress(ByteBuffer packed, int length) throws ZipException {
+		int packedLength = packed.remaining();
+		if (input.length < packedLength)
+			input = new byte[packedLength];
+		if (output.length < length)
+			output = new byte[length];
+		packed.duplicate().get(input, 0, packedLength);
+
+		inflater.reset();
+		inflater.setInput(input, 0, packedLength);
+		try {
+			int inflated = inflater.inflate(output, 0, length);
+			if (inflated != length || !inflater.finished())
+				throw new ZipException("Chunk inflated to the wrong length");
+		} catch (DataFormatException e) {
+			throw new ZipException("Corrupt compressed chunk: " + e.getMessage());
+		}
+
+		return ByteBuffer.wrap(output, 0, length);
+	}
+}
@@ -0,0 +1,139 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps the chunks of a streamed transfer on disk, exactly as they came off
+ * the wire, so a Ringo can pass them on without holding the file in memory.
+ *
+ * The spool file starts with seqLength(4) and chunkSize(4), followed by a
+ * slot of SLOT_HEADER + chunkSize bytes for every chunk, at HEADER +
+ * sequenceNumber * slot size: the payload length, its checksum and its
+ * uncompressed length (-1 if it isn't compressed), then the payload.
+ * Writes and reads go through MappedChunks. A file left by a transfer of a
+ * different length or chunk size is started over, as its slots would be
+ * read at the wrong offsets.
+ *
+ * The spool file outlives the Ringo process, so together with a
+ * ProgressBitmap an interrupted transfer can be resumed from it. To also
+ * outlive the host, flush() the spool before forcing the bitmap that
+ * records its chunks.
+ *
+ * Not thread-safe.
+ */
+public class ChunkSpool {
+	/** Bytes in front of the slots */
+	public static final int HEADER = 8;
+
+	/** Bytes in front of every payload */
+	public static final int SLOT_HEADER = 12;
+
+	private File file;
+	private FileChannel channel;
+	private MappedChunks slots;
+	private int chunkSize;
+	private boolean startedOver;
+
+	/**
+	 * Opens the spool file, creating it if it doesn't exist yet, and starts
+	 * it over if it was left by a transfer cut differently
+	 * @param file Where the chunks are kept
+	 * @param seqLength Number of chunks in the transfer
+	 * @param chunkSize Size every chunk but the last one was cut to
+	 * @throws IOException if the spool file can't be opened
+	 */
+	public ChunkSpool(File file, long seqLength, int chunkSize) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.chunkSize = chunkSize;
+		int stride = SLOT_HEADER + chunkSize;
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		// segments past the first grow the file as they are mapped, so only the header tells
+		this.startedOver = this.channel.read(header, 0) != HEADER
+				|| header.getInt(0) != (int) seqLength
+				|| header.getInt(4) != chunkSize;
+		if (this.startedOver) {
+			this.channel.truncate(0);
+			header.clear();
+			header.putInt((int) seqLength).putInt(chunkSize).flip();
+			this.channel.write(header, 0);
+		}
+		this.slots = new MappedChunks(this.channel, FileChannel.MapMode.READ_WRITE, HEADER, stride, seqLength * stride);
+	}
+
+	/**
+	 * @return true if the spool holds none of the chunks of an earlier run
+	 */
+	public boolean isStartedOver() {
+		return this.startedOver;
+	}
+
+	/**
+	 * Copies a chunk into its slot
+	 * @param chunk Intact DATA packet of this transfer
+	 * @throws IOException if the slot can't be mapped
+	 */
+	public void write(RingoPacket chunk) throws IOException {
+		ByteBuffer payload = chunk.getPayload().duplicate();
+		ByteBuffer slot = this.slots.view(chunk.getSequenceNumber(), SLOT_HEADER + payload.remaining());
+		slot.putInt(payload.remaining());
+		slot.putInt(chunk.getChecksum());
+		slot.putInt(chunk.isCompressed() ? chunk.getUncompressedLength() : -1);
+		slot.put(payload);
+	}
+
+	/**
+	 * Restores the payload section of a chunk from its slot. The payload is a
+	 * view into the spool, valid until close().
+	 * @param chunk DATA packet carrying the sequence number of a written chunk
+	 * @throws IOException if the slot can't be mapped
+	 */
+	public void read(RingoPacket chunk) throws IOException {
+		ByteBuffer header = this.slots.view(chunk.getSequenceNumber(), SLOT_HEADER);
+		int length = header.getInt();
+		int checksum = header.getInt();
+		int uncompressedLength = header.getInt();
+
+		ByteBuffer slot = this.slots.view(chunk.getSequenceNumber(), SLOT_HEADER + length);
+		slot.position(SLOT_HEADER);
+		chunk.setPayload(slot.slice());
+		chunk.setChecksum(checksum);
+		if (uncompressedLength >= 0)
+			chunk.setCompressed(uncompressedLength);
+		chunk.setChunkSize(this.chunkSize);
+	}
+
+	/**
+	 * Writes the chunks written so far to disk
+	 */
+	public void flush() {
+		this.slots.force();
+	}
+
+	/**
+	 * Flushes and closes the spool file, keeping its chunks for a later resume
+	 */
+	public void close() {
+		flush();
+		closeChannel();
+	}
+
+	/**
+	 * Closes and deletes the spool file once the transfer is done
+	 */
+	public void delete() {
+		closeChannel();
+		this.file.delete();
+	}
+
+	private void closeChannel() {
+		try {
+			this.channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
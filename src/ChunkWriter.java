@@ -0,0 +1,143 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Writes the chunks of a file being received, on a thread of its own, so
+ * disk writes overlap with receiving and acking the rest of the file.
+ *
+ * The output file is preallocated (sparse) to the largest size the transfer
+ * can have when the writer is created. Every chunk is written at
+ * sequenceNumber * chunkSize as soon as it is handed over, in whatever order
+ * chunks arrive, and compressed chunks are inflated on the writer's thread.
+ * finish() waits for the queued chunks and trims the file to its real length.
+ *
+ * Handing over a chunk only queues the packet; its payload must stay valid
+ * until finish() returns. With a bounded backlog, write() blocks while that
+ * many chunks are waiting, so a slow disk holds back the transfer instead of
+ * filling the heap with receive buffers.
+ */
+public class ChunkWriter implements Runnable {
+	/** Marks the end of the queue */
+	private static final RingoPacket END = new RingoPacket(null, 0, null, 0, 0, 0, PacketType.DATA, Role.RECEIVER);
+
+	private File file;
+	private FileChannel channel;
+	private LinkedBlockingQueue<RingoPacket> pending;
+	private ChunkCompressor compressor;
+	private Thread thread;
+	private long length;
+	private volatile IOException failure;
+
+	/**
+	 * Creates (or truncates) the file and starts the writer thread, with an unbounded backlog
+	 * @param file File to write
+	 * @param seqLength Number of chunks in the transfer
+	 * @param chunkSize Size every chunk but the last one was cut to
+	 * @throws IOException if the file can't be created
+	 */
+	public ChunkWriter(File file, long seqLength, int chunkSize) throws IOException {
+		this(file, seqLength, chunkSize, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates (or truncates) the file and starts the writer thread
+	 * @param file File to write
+	 * @param seqLength Number of chunks in the transfer
+	 * @param chunkSize Size every chunk but the last one was cut to
+	 * @param backlog Most chunks waiting to be written before write() blocks
+	 * @throws IOException if the file can't be created
+	 */
+	public ChunkWriter(File file, long seqLength, int chunkSize, int backlog) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.pending = new LinkedBlockingQueue<RingoPacket>(backlog);
+		this.compressor = new ChunkCompressor();
+		this.length = 0;
+
+		long capacity = seqLength * chunkSize;
+		if (capacity > 0) {
+			// writing the last byte extends the file without filling the gap
+			this.channel.write(ByteBuffer.allocate(1), capacity - 1);
+		}
+
+		this.thread = new Thread(this);
+		this.thread.start();
+	}
+
+	/**
+	 * Queues a chunk to be written at its position, waiting for room in a bounded backlog
+	 * @param chunk Intact DATA packet of this transfer
+	 */
+	public void write(RingoPacket chunk) {
+		try {
+			this.pending.put(chunk);
+		} catch (InterruptedException e) {
+			this.failure = new IOException("Interrupted while writing " + this.file, e);
+		}
+	}
+
+	public void run() {
+		try {
+			RingoPacket chunk = this.pending.take();
+			while (chunk != END) {
+				if (this.failure == null) {
+					writeChunk(chunk);
+				}
+				chunk = this.pending.take();
+			}
+		} catch (InterruptedException e) {
+			this.failure = new IOException("Interrupted while writing " + this.file, e);
+		}
+	}
+
+	private void writeChunk(RingoPacket chunk) {
+		try {
+			ByteBuffer payload = chunk.isCompressed()
+					? this.compressor.decompress(chunk.getPayload(), chunk.getUncompressedLength())
+					: chunk.getPayload().duplicate();
+			long position = (long) chunk.getSequenceNumber() * chunk.getChunkSize();
+			this.length = Math.max(this.length, position + payload.remaining());
+			while (payload.hasRemaining()) {
+				position += this.channel.write(payload, position);
+			}
+		} catch (IOException e) {
+			this.failure = e;
+		}
+	}
+
+	/**
+	 * Waits until every queued chunk is written, then trims and closes the file
+	 * @throws IOException if any chunk couldn't be written
+	 */
+	public void finish() throws IOException {
+		try {
+			this.pending.put(END);
+			this.thread.join();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while writing " + this.file, e);
+		}
+
+		try {
+			if (this.failure != null)
+				throw this.failure;
+			this.channel.truncate(this.length);
+		} finally {
+			this.channel.close();
+		}
+	}
+
+	/**
+	 * Opens the finished file for reading, e.g. to serve its chunks through
+	 * MappedChunks without reading them into the heap. Mappings made through
+	 * the channel stay valid once it is closed.
+	 * @return Read-only channel of the file
+	 * @throws IOException if the file can't be opened
+	 */
+	public FileChannel open() throws IOException {
+		return FileChannel.open(this.file.toPath(), StandardOpenOption.READ);
+	}
+}
@@ -0,0 +1,516 @@
+/**
+ * Decides how many DATA chunks may be in flight to one next hop, and how
+ * fast they are released, so a window isn't dumped into the socket at once
+ * and a slower hop isn't overrun into the loss it then has to repair.
+ *
+ * A WorkerThread keeps one controller per next hop. Each window sending to
+ * that hop opens a Flight on it, which tracks which of the window's chunks
+ * count as in flight, and reports what the acks say: chunks delivered, an
+ * RTT sample of a chunk that was only sent once (Karn's rule), chunks
+ * found lost, or a timeout. The algorithm turns that into the congestion
+ * window, and releases are paced over the smoothed RTT, up to MAX_BURST
+ * chunks at once. The same samples feed the hop's RtoEstimator, which
+ * times the windows out.
+ *
+ * Repairs of single chunks (NACKs, fast retransmits) aren't held back by
+ * the window, only counted.
+ *
+ * Not thread-safe; only the worker thread uses it.
+ */
+public abstract class CongestionController {
+	/** Congestion window a hop starts with, in chunks */
+	public static final int INITIAL_WINDOW = 10;
+
+	/** Smallest congestion window, in chunks */
+	public static final int MIN_WINDOW = 2;
+
+	/** Chunks that may be released back to back after a pause */
+	public static final int MAX_BURST = 4;
+
+	protected double cwnd;
+	protected double ssthresh;
+	protected int flight;
+	protected RtoEstimator rto;
+	protected long minRttNanos;
+	private long nextRelease;
+	private long recoveryEnd;
+	private long timeoutEnd;
+
+	protected CongestionController() {
+		this.cwnd = INITIAL_WINDOW;
+		this.ssthresh = Double.MAX_VALUE;
+		this.flight = 0;
+		this.rto = new RtoEstimator();
+		this.minRttNanos = Long.MAX_VALUE;
+		this.nextRelease = System.nanoTime();
+		this.recoveryEnd = this.nextRelease;
+		this.timeoutEnd = this.nextRelease;
+	}
+
+	/**
+	 * @param kind Configured algorithm
+	 * @return A new controller of that kind, for one next hop
+	 */
+	public static CongestionController create(RingoConfig.Congestion kind) {
+		switch (kind) {
+		case AIMD:
+			return new Aimd();
+		case CUBIC:
+			return new Cubic();
+		case BBR:
+			return new Bbr();
+		case NONE:
+		default:
+			return new Unlimited();
+		}
+	}
+
+	/**
+	 * @param capacity Chunks the window has in flight at most
+	 * @return A new Flight for a window sending to this controller's hop
+	 */
+	public Flight open(int capacity) {
+		return new Flight(capacity);
+	}
+
+	/**
+	 * @return Retransmission timeout estimate of the hop
+	 */
+	public RtoEstimator getRto() {
+		return this.rto;
+	}
+
+	/**
+	 * @param now System.nanoTime()
+	 * @return true if one more chunk may be released now
+	 */
+	protected boolean mayRelease(long now) {
+		return this.flight < Math.max(1, (int) this.cwnd) && now - this.nextRelease >= 0;
+	}
+
+	/**
+	 * @param now System.nanoTime()
+	 * @return Nanoseconds until pacing lets the next chunk out, 0 if it isn't what holds it back
+	 */
+	protected long pacingDelay(long now) {
+		if (this.flight >= Math.max(1, (int) this.cwnd)) {
+			// an ack, not time, opens the window again
+			return 0;
+		}
+		return Math.max(this.nextRelease - now, 0);
+	}
+
+	/**
+	 * Spaces the next release pacingGap() after this one
+	 * @param now System.nanoTime()
+	 */
+	protected void paced(long now) {
+		long gap = pacingGap();
+		this.nextRelease = Math.max(this.nextRelease, now - MAX_BURST * gap) + gap;
+	}
+
+	/**
+	 * @return Nanoseconds between releases, 0 not to pace
+	 */
+	protected long pacingGap() {
+		if (this.rto.getSrttNanos() == 0) {
+			return 0;
+		}
+		// a little faster than one window per RTT, so the window rather than the pacing is what limits
+		double gain = (this.cwnd < this.ssthresh) ? 2.0 : 1.25;
+		return (long) (this.rto.getSrttNanos() / (this.cwnd * gain));
+	}
+
+	/**
+	 * Takes in an RTT sample
+	 * @param rttNanos Time from sending a chunk to its ack
+	 */
+	protected void sampled(long rttNanos) {
+		this.rto.sample(rttNanos);
+		this.minRttNanos = Math.min(this.minRttNanos, rttNanos);
+	}
+
+	/**
+	 * Chunks were acked
+	 * @param delivered Number of chunks the ack covered
+	 * @param now System.nanoTime()
+	 */
+	protected abstract void acked(int delivered, long now);
+
+	/**
+	 * A chunk was found lost while others got through. Called at most once a round trip.
+	 * @param now System.nanoTime()
+	 */
+	protected abstract void lost(long now);
+
+	/**
+	 * Nothing was acked for a whole timeout. Called once however many windows timed out together.
+	 * @param now System.nanoTime()
+	 */
+	protected void timedOut(long now) {
+		this.ssthresh = Math.max(this.cwnd / 2, MIN_WINDOW);
+		this.cwnd = 1;
+	}
+
+	/**
+	 * Slow start: the window grows by a chunk per chunk acked
+	 * @param delivered Number of chunks acked
+	 * @return Chunks of delivered left once the window reached ssthresh
+	 */
+	protected int slowStart(int delivered) {
+		double grown = Math.min(this.cwnd + delivered, this.ssthresh);
+		int left = delivered - (int) (grown - this.cwnd);
+		this.cwnd = grown;
+		return left;
+	}
+
+	/**
+	 * The chunks one window sends to the hop, counted as in flight on the
+	 * controller while they are
+	 */
+	public class Flight {
+		private long[] sentAt;
+		private boolean[] counted;
+
+		/**
+		 * @param capacity Chunks the window has in flight at most
+		 */
+		public Flight(int capacity) {
+			this.sentAt = new long[Math.max(1, capacity)];
+			this.counted = new boolean[this.sentAt.length];
+		}
+
+		/**
+		 * @return true if the window may release one more chunk now
+		 */
+		public boolean mayRelease() {
+			return CongestionController.this.mayRelease(System.nanoTime());
+		}
+
+		/**
+		 * @return Nanoseconds until pacing lets the window release again, 0 if only an ack can, or nothing holds it
+		 */
+		public long getPacingDelayNanos() {
+			return CongestionController.this.pacingDelay(System.nanoTime());
+		}
+
+		/**
+		 * @return How long the window waits for an ack before it times out, in milliseconds
+		 */
+		public long getTimeoutMillis() {
+			return CongestionController.this.rto.getTimeoutMillis();
+		}
+
+		/**
+		 * Counts a chunk as in flight
+		 * @param seq Sequence number of the chunk just sent
+		 */
+		public void sent(int seq) {
+			long now = System.nanoTime();
+			int index = slot(seq);
+			// only a chunk sent exactly once gives an RTT sample
+			this.sentAt[index] = (this.sentAt[index] == 0) ? now : -1;
+			if (!this.counted[index]) {
+				this.counted[index] = true;
+				CongestionController.this.flight++;
+			}
+			paced(now);
+		}
+
+		/**
+		 * The chunks [from, to) were cumulatively acked
+		 * @param from First chunk the ack covers
+		 * @param to Chunk after the last one it covers
+		 */
+		public void acked(int from, int to) {
+			if (to <= from) {
+				return;
+			}
+			long now = System.nanoTime();
+			long sent = this.sentAt[slot(to - 1)];
+			if (sent > 0) {
+				sampled(now - sent);
+			} else {
+				CongestionController.this.rto.progressed();
+			}
+			forget(from, to);
+			CongestionController.this.acked(to - from, now);
+		}
+
+		/**
+		 * A chunk of the window was found lost
+		 */
+		public void lost() {
+			long now = System.nanoTime();
+			if (now - CongestionController.this.recoveryEnd >= 0) {
+				CongestionController.this.lost(now);
+				CongestionController.this.recoveryEnd = now + CongestionController.this.rto.getSrttNanos();
+			}
+		}
+
+		/**
+		 * The chunks [from, to) were not acked in time, none of them counts as in flight any more
+		 * @param from First chunk not acked
+		 * @param to Chunk after the last one sent
+		 */
+		public void timedOut(int from, int to) {
+			uncount(from, to);
+			long now = System.nanoTime();
+			if (now - CongestionController.this.timeoutEnd >= 0) {
+				// windows timing out within one timeout of each other ran into the same loss
+				CongestionController.this.timedOut(now);
+				CongestionController.this.timeoutEnd = now + CongestionController.this.rto.getTimeoutNanos();
+				CongestionController.this.rto.backoff();
+			}
+		}
+
+		/**
+		 * The window is done or given up on, its chunks [from, to) no longer count as in flight
+		 * @param from First chunk not acked
+		 * @param to Chunk after the last one sent
+		 */
+		public void close(int from, int to) {
+			forget(from, to);
+		}
+
+		/**
+		 * @param from First chunk
+		 * @param to Chunk after the last one
+		 */
+		private void uncount(int from, int to) {
+			int chunks = (int) Math.min((long) to - from, this.counted.length);
+			for (int i = 0; i < chunks; i++) {
+				int index = slot(from + i);
+				if (this.counted[index]) {
+					this.counted[index] = false;
+					CongestionController.this.flight--;
+				}
+			}
+		}
+
+		/**
+		 * Frees the slots of chunks that left the window
+		 * @param from First chunk
+		 * @param to Chunk after the last one
+		 */
+		private void forget(int from, int to) {
+			uncount(from, to);
+			int chunks = (int) Math.min((long) to - from, this.sentAt.length);
+			for (int i = 0; i < chunks; i++) {
+				this.sentAt[slot(from + i)] = 0;
+			}
+		}
+
+		/**
+		 * @param seq Sequence number
+		 * @return Index of its place in the ring
+		 */
+		private int slot(int seq) {
+			return Math.floorMod(seq, this.sentAt.length);
+		}
+	}
+
+	/**
+	 * No congestion control: every chunk the window has room for goes out at once
+	 */
+	static class Unlimited extends CongestionController {
+		protected boolean mayRelease(long now) {
+			return true;
+		}
+
+		protected long pacingGap() {
+			return 0;
+		}
+
+		protected void acked(int delivered, long now) {
+		}
+
+		protected void lost(long now) {
+		}
+
+		protected void timedOut(long now) {
+		}
+	}
+
+	/**
+	 * Reno-style additive increase, multiplicative decrease: slow start up to
+	 * ssthresh, then a chunk more per window acked, and half the window on a loss
+	 */
+	static class Aimd extends CongestionController {
+		protected void acked(int delivered, long now) {
+			int left = slowStart(delivered);
+			this.cwnd += (double) left / this.cwnd;
+		}
+
+		protected void lost(long now) {
+			this.ssthresh = Math.max(this.cwnd / 2, MIN_WINDOW);
+			this.cwnd = this.ssthresh;
+		}
+	}
+
+	/**
+	 * CUBIC: after a loss the window grows along a cubic curve of the time
+	 * since, flat around the window the loss happened at and steep away from
+	 * it, so it recovers quickly on a fast hop regardless of its RTT
+	 */
+	static class Cubic extends CongestionController {
+		public static final double C = 0.4;
+		public static final double BETA = 0.7;
+
+		private double wMax;
+		private double k;
+		private long epochStart;
+
+		public Cubic() {
+			this.wMax = 0;
+			this.k = 0;
+			this.epochStart = 0;
+		}
+
+		protected void acked(int delivered, long now) {
+			int left = slowStart(delivered);
+			if (left == 0) {
+				return;
+			}
+			if (this.epochStart == 0) {
+				this.epochStart = now;
+				this.wMax = Math.max(this.wMax, this.cwnd);
+				this.k = Math.cbrt(this.wMax * (1 - BETA) / C);
+			}
+
+			// where the curve is one RTT from now
+			double t = (now - this.epochStart + this.rto.getSrttNanos()) / 1e9;
+			double target = C * Math.pow(t - this.k, 3) + this.wMax;
+			if (target > this.cwnd) {
+				// at most half a chunk more per chunk acked
+				this.cwnd += Math.min((target - this.cwnd) / this.cwnd, 0.5) * left;
+			} else {
+				this.cwnd += 0.01 * left / this.cwnd;
+			}
+		}
+
+		protected void lost(long now) {
+			// fast convergence: give up some room to a newer flow still growing
+			this.wMax = (this.cwnd < this.wMax) ? this.cwnd * (1 + BETA) / 2 : this.cwnd;
+			this.ssthresh = Math.max(this.cwnd * BETA, MIN_WINDOW);
+			this.cwnd = this.ssthresh;
+			this.epochStart = 0;
+		}
+
+		protected void timedOut(long now) {
+			super.timedOut(now);
+			this.epochStart = 0;
+		}
+	}
+
+	/**
+	 * BBR-like: estimates the hop's bottleneck bandwidth (the highest delivery
+	 * rate of the last few rounds) and its minimum RTT, paces at that rate
+	 * and keeps twice their product in flight, instead of reading loss as
+	 * congestion. It starts up at a high gain until the bandwidth stops
+	 * growing, drains the queue that built, then cycles its gain to probe for
+	 * more bandwidth.
+	 */
+	static class Bbr extends CongestionController {
+		public static final double STARTUP_GAIN = 2.89;
+		public static final double CWND_GAIN = 2.0;
+		public static final double[] PROBE_GAINS = { 1.25, 0.75, 1, 1, 1, 1, 1, 1 };
+		public static final int BANDWIDTH_ROUNDS = 10;
+		public static final int MIN_CWND = 4;
+
+		private double[] bandwidth;
+		private int round;
+		private double pacingGain;
+		private boolean filled;
+		private double fullBandwidth;
+		private int fullRounds;
+		private boolean draining;
+		private int cycle;
+		private long delivered;
+		private long roundStart;
+		private long roundDelivered;
+
+		public Bbr() {
+			this.bandwidth = new double[BANDWIDTH_ROUNDS];
+			this.round = 0;
+			this.pacingGain = STARTUP_GAIN;
+			this.filled = false;
+			this.fullBandwidth = 0;
+			this.fullRounds = 0;
+			this.draining = false;
+			this.cycle = 0;
+			this.delivered = 0;
+			this.roundStart = System.nanoTime();
+			this.roundDelivered = 0;
+		}
+
+		/**
+		 * @return Bottleneck bandwidth estimate in chunks per nanosecond, 0 before the first round
+		 */
+		private double bottleneck() {
+			double max = 0;
+			for (double sample : this.bandwidth) {
+				max = Math.max(max, sample);
+			}
+			return max;
+		}
+
+		protected long pacingGap() {
+			double rate = bottleneck() * this.pacingGain;
+			return (rate == 0) ? super.pacingGap() : (long) (1 / rate);
+		}
+
+		protected void acked(int delivered, long now) {
+			this.delivered += delivered;
+			long roundLength = (this.minRttNanos == Long.MAX_VALUE) ? 0 : this.minRttNanos;
+			if (now - this.roundStart < Math.max(roundLength, 1000000L)) {
+				if (!this.filled) {
+					// the model isn't there yet, grow like slow start
+					this.cwnd += delivered;
+				}
+				return;
+			}
+
+			// a round ended, take its delivery rate
+			double rate = (double) (this.delivered - this.roundDelivered) / (now - this.roundStart);
+			this.round++;
+			this.bandwidth[this.round % BANDWIDTH_ROUNDS] = rate;
+			this.roundStart = now;
+			this.roundDelivered = this.delivered;
+			double bottleneck = bottleneck();
+			double bdp = bottleneck * roundLength;
+
+			if (!this.filled) {
+				if (bottleneck >= this.fullBandwidth * 1.25) {
+					this.fullBandwidth = bottleneck;
+					this.fullRounds = 0;
+				} else if (++this.fullRounds >= 3) {
+					// the pipe is full, drain the queue startup built
+					this.filled = true;
+					this.draining = true;
+					this.pacingGain = 1 / STARTUP_GAIN;
+				}
+			} else if (this.draining) {
+				if (this.flight <= bdp) {
+					this.draining = false;
+					this.cycle = 0;
+					this.pacingGain = PROBE_GAINS[0];
+				}
+			} else {
+				this.cycle = (this.cycle + 1) % PROBE_GAINS.length;
+				this.pacingGain = PROBE_GAINS[this.cycle];
+			}
+
+			double gain = this.filled ? CWND_GAIN : STARTUP_GAIN;
+			this.cwnd = Math.max(MIN_CWND, gain * bdp);
+		}
+
+		protected void lost(long now) {
+			// loss isn't taken for congestion, the model is
+		}
+
+		protected void timedOut(long now) {
+			this.cwnd = MIN_CWND;
+		}
+	}
+}
@@ -0,0 +1,259 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Spots received packets that are already waiting in a PacketMailbox, in
+ * constant time, so a retransmission can be dropped before it is filed.
+ *
+ * DATA, DATA_ACK and DATA_NACK packets are tracked in a sliding bitmap of
+ * sequence numbers per packet type, sending peer and transfer. Every other
+ * packet, except LSA, is tracked in a bounded map of recent ids (type,
+ * peer and sequence number) pointing at the waiting packet, which a
+ * duplicate refreshes in place, the same as RingoPacket.replace() did
+ * when the queue was searched for it.
+ *
+ * A packet is only a duplicate while its twin is still waiting. Once it is
+ * taken the sequence number is released, so a chunk resent after a lost
+ * ACK or NACK is let through and answered again.
+ *
+ * A DATA_ACK carrying SACK ranges is never a duplicate: the cumulative ack
+ * stays the same while the ranges grow, and a selective-repeat sender needs
+ * the newest ones.
+ *
+ * Not thread-safe; the mailbox calls it while holding its lock.
+ */
+public class DuplicateFilter {
+	/** Sequence numbers covered by one bitmap */
+	public static final int WINDOW_BITS = 1 << 16;
+
+	/** Control packet ids remembered at most */
+	public static final int MAX_RECENT = 1024;
+
+	private static final PacketType[] TYPES = PacketType.values();
+
+	private ArrayList<ArrayList<HashMap<Long, SequenceWindow>>> windows;
+	private LinkedHashMap<Long, RingoPacket> recent;
+
+	public DuplicateFilter() {
+		this.windows = new ArrayList<ArrayList<HashMap<Long, SequenceWindow>>>(TYPES.length);
+		for (int i = 0; i < TYPES.length; i++) {
+			this.windows.add(new ArrayList<HashMap<Long, SequenceWindow>>());
+		}
+		this.recent = new LinkedHashMap<Long, RingoPacket>(MAX_RECENT * 2, 0.75f, false) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Long, RingoPacket> eldest) {
+				return size() > MAX_RECENT;
+			}
+		};
+	}
+
+	/**
+	 * Records a received packet as waiting, unless its twin already is
+	 * @param packet Received packet
+	 * @param peer Id of the sending peer
+	 * @return true if the packet should be filed, false if it is a duplicate
+	 */
+	public boolean admit(RingoPacket packet, int peer) {
+		if (packet.getType() == PacketType.LSA || packet.getSack() != null) {
+			// every LSA carries a different delta under the same sequence number,
+			// and every SACK different ranges under the same cumulative ack
+			return true;
+		}
+
+		if (isSequenced(packet.getType())) {
+			return window(packet, peer, true).mark(packet.getSequenceNumber());
+		}
+
+		Long id = controlId(packet, peer);
+		RingoPacket waiting = this.recent.get(id);
+		if (waiting != null) {
+			waiting.replace(packet);
+			return false;
+		}
+		this.recent.put(id, packet);
+		return true;
+	}
+
+	/**
+	 * Records a packet as no longer waiting
+	 * @param packet Packet taken or discarded from the mailbox
+	 * @param peer Id of the sending peer
+	 */
+	public void release(RingoPacket packet, int peer) {
+		if (packet.getType() == PacketType.LSA || packet.getSack() != null) {
+			return;
+		}
+
+		if (isSequenced(packet.getType())) {
+			SequenceWindow window = window(packet, peer, false);
+			if (window != null) {
+				window.clear(packet.getSequenceNumber());
+			}
+			return;
+		}
+
+		this.recent.remove(controlId(packet, peer), packet);
+	}
+
+	/**
+	 * Drops the bitmaps of one transfer once it is over
+	 * @param type Type of packet
+	 * @param transferId Id of the transfer
+	 */
+	public void forget(PacketType type, long transferId) {
+		for (HashMap<Long, SequenceWindow> byTransfer : this.windows.get(type.ordinal())) {
+			if (byTransfer != null) {
+				byTransfer.remove(transferId);
+			}
+		}
+	}
+
+	/**
+	 * Drops the bitmaps of every transfer of a type
+	 * @param type Type of packet
+	 */
+	public void forget(PacketType type) {
+		this.windows.get(type.ordinal()).clear();
+	}
+
+	/**
+	 * Drops the bitmaps of every transfer of a type from one peer
+	 * @param type Type of packet
+	 * @param peer Id of the sending peer
+	 */
+	public void forget(PacketType type, int peer) {
+		ArrayList<HashMap<Long, SequenceWindow>> byPeer = this.windows.get(type.ordinal());
+		if (peer < byPeer.size()) {
+			byPeer.set(peer, null);
+		}
+	}
+
+	/**
+	 * Forgets every packet
+	 */
+	public void clear() {
+		for (ArrayList<HashMap<Long, SequenceWindow>> byPeer : this.windows) {
+			byPeer.clear();
+		}
+		this.recent.clear();
+	}
+
+	/**
+	 * @param type Type of packet
+	 * @return true if packets of the type are told apart by sequence number within a transfer
+	 */
+	private static boolean isSequenced(PacketType type) {
+		return type == PacketType.DATA || type == PacketType.DATA_ACK || type == PacketType.DATA_NACK;
+	}
+
+	/**
+	 * @param packet Control packet
+	 * @param peer Id of the sending peer
+	 * @return type(8) peer(24) sequence number(32)
+	 */
+	private static Long controlId(RingoPacket packet, int peer) {
+		return ((long) packet.getType().ordinal() << 56) | ((long) (peer & 0xFFFFFF) << 32) | (packet.getSequenceNumber() & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param packet Sequenced packet
+	 * @param peer Id of the sending peer
+	 * @param create true to create the bitmap if it doesn't exist yet
+	 * @return The bitmap of the packet's type, peer and transfer, or null if it doesn't exist and create is false
+	 */
+	private SequenceWindow window(RingoPacket packet, int peer, boolean create) {
+		ArrayList<HashMap<Long, SequenceWindow>> byPeer = this.windows.get(packet.getType().ordinal());
+		while (create && byPeer.size() <= peer) {
+			byPeer.add(null);
+		}
+		if (peer >= byPeer.size()) {
+			return null;
+		}
+
+		HashMap<Long, SequenceWindow> byTransfer = byPeer.get(peer);
+		if (byTransfer == null) {
+			if (!create)
+				return null;
+			byTransfer = new HashMap<Long, SequenceWindow>();
+			byPeer.set(peer, byTransfer);
+		}
+
+		SequenceWindow window = byTransfer.get(packet.getTransferId());
+		if (window == null && create) {
+			window = new SequenceWindow(packet.getSequenceNumber());
+			byTransfer.put(packet.getTransferId(), window);
+		}
+		return window;
+	}
+
+	/**
+	 * Bits for the sequence numbers [base, base + WINDOW_BITS), kept in a ring
+	 * of words. A sequence number past the end slides the window forward, and
+	 * the bits it slides over are forgotten; one below the base is never
+	 * taken for a duplicate.
+	 */
+	private static class SequenceWindow {
+		private long base;
+		private long[] bits;
+
+		/**
+		 * @param first First sequence number seen, placed in the middle of the window
+		 */
+		public SequenceWindow(int first) {
+			this.base = (long) first - WINDOW_BITS / 2;
+			this.bits = new long[WINDOW_BITS / 64];
+		}
+
+		/**
+		 * @param seq Sequence number of a waiting packet
+		 * @return false if it was already marked
+		 */
+		public boolean mark(int seq) {
+			if (seq < this.base) {
+				return true;
+			}
+			if (seq >= this.base + WINDOW_BITS) {
+				slide(seq - WINDOW_BITS + 1);
+			}
+
+			int index = (int) Math.floorMod((long) seq, (long) WINDOW_BITS);
+			long mask = 1L << (index & 63);
+			if ((this.bits[index >>> 6] & mask) != 0) {
+				return false;
+			}
+			this.bits[index >>> 6] |= mask;
+			return true;
+		}
+
+		/**
+		 * @param seq Sequence number of a packet that is no longer waiting
+		 */
+		public void clear(int seq) {
+			if (seq < this.base || seq >= this.base + WINDOW_BITS) {
+				return;
+			}
+			int index = (int) Math.floorMod((long) seq, (long) WINDOW_BITS);
+			this.bits[index >>> 6] &= ~(1L << (index & 63));
+		}
+
+		/**
+		 * Moves the base forward, forgetting the bits in between
+		 * @param base New base
+		 */
+		private void slide(long base) {
+			if (base - this.base >= WINDOW_BITS) {
+				Arrays.fill(this.bits, 0);
+			} else {
+				for (long seq = this.base; seq < base; seq++) {
+					int index = (int) Math.floorMod(seq, (long) WINDOW_BITS);
+					this.bits[index >>> 6] &= ~(1L << (index & 63));
+				}
+			}
+			this.base = base;
+		}
+	}
+}
@@ -4,20 +4,21 @@ public class HostInformation {
 	private boolean local;
 	private String host;
 	private int port;
+	private PeerRegistry.Peer peer;
 
 	/**
 	 * A Partially immutable representation of the members of the Ring. Only state is mutable.
 	 * 
 	 * @param state MUTABLE state of Ringo
 	 * @param local does this HostInformation represent THIS Ringo/David?
-	 * @param host 
-	 * @param port 
+	 * @param peer Interned endpoint of the Ringo
 	 */
-	public HostInformation(HostState state, boolean local, String host, int port) {
+	public HostInformation(HostState state, boolean local, PeerRegistry.Peer peer) {
 		this.state = state;
 		this.local = local;
-		this.host = host; 
-		this.port = port;
+		this.host = peer.getHost();
+		this.port = peer.getPort();
+		this.peer = peer;
 	}
 
 	/**
@@ -48,13 +49,17 @@ public class HostInformation {
 	public int getPort() {
 		return port;
 	}
+
+	public PeerRegistry.Peer getPeer() {
+		return peer;
+	}
 	
 	/**
 	 * 
 	 * @return The hostname and port of the Ringo, in hostname:port layout
 	 */
 	public String hostString() {
-		return host + ":" + port;
+		return peer.getKey();
 	}
 	
 	public String toString() {
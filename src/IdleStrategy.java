@@ -0,0 +1,138 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decides what a polling loop does when a pass found no work.
+ *
+ * A loop calls idle() after a pass that found nothing to do, and reset()
+ * after one that did. Producers call wake() when they hand the loop new
+ * work (e.g. as the signal of a SignallingQueue), so a parked loop picks
+ * it up right away instead of at the end of its park.
+ *
+ * Each looping thread needs its own instance.
+ */
+public interface IdleStrategy {
+
+	/**
+	 * Called by the looping thread after a pass that found no work
+	 */
+	void idle();
+
+	/**
+	 * Called by the looping thread after a pass that found work
+	 */
+	default void reset() {
+	}
+
+	/**
+	 * Called by any thread that just gave the loop work
+	 */
+	default void wake() {
+	}
+
+	/**
+	 * @param kind Configured kind of strategy
+	 * @return A new strategy of that kind, for one looping thread
+	 */
+	static IdleStrategy create(RingoConfig.Idle kind) {
+		switch (kind) {
+		case SPIN:
+			return new BusySpin();
+		case YIELD:
+			return new Yield();
+		case BACKOFF:
+			return new Backoff();
+		case BLOCK:
+		default:
+			return new Block();
+		}
+	}
+
+	/**
+	 * Never gives up the core, for the lowest latency at the cost of one core per loop
+	 */
+	class BusySpin implements IdleStrategy {
+		public void idle() {
+		}
+	}
+
+	/**
+	 * Gives up the rest of the time slice to other runnable threads
+	 */
+	class Yield implements IdleStrategy {
+		public void idle() {
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Spins a little, then yields a little, then parks for exponentially
+	 * longer periods up to MAX_PARK_NANOS. Finding work starts over with spinning.
+	 */
+	class Backoff implements IdleStrategy {
+		public static final int SPINS = 100;
+		public static final int YIELDS = 50;
+		public static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+		public static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+		private int idles;
+		private long parkNanos;
+		private volatile Thread waiter;
+
+		public Backoff() {
+			reset();
+		}
+
+		public void idle() {
+			if (this.idles < SPINS) {
+				this.idles++;
+			} else if (this.idles < SPINS + YIELDS) {
+				this.idles++;
+				Thread.yield();
+			} else {
+				this.waiter = Thread.currentThread();
+				LockSupport.parkNanos(this, this.parkNanos);
+				this.waiter = null;
+				this.parkNanos = Math.min(this.parkNanos * 2, MAX_PARK_NANOS);
+			}
+		}
+
+		public void reset() {
+			this.idles = 0;
+			this.parkNanos = MIN_PARK_NANOS;
+		}
+
+		public void wake() {
+			Thread waiter = this.waiter;
+			if (waiter != null)
+				LockSupport.unpark(waiter);
+		}
+	}
+
+	/**
+	 * Parks until woken, or for at most MAX_PARK_MILLIS so loops also notice
+	 * work nobody wakes them for (timeouts, the offline command).
+	 */
+	class Block implements IdleStrategy {
+		public static final long MAX_PARK_MILLIS = 100;
+
+		private volatile Thread waiter;
+		private volatile boolean woken;
+
+		public void idle() {
+			this.waiter = Thread.currentThread();
+			// a wake() after this check unparks us in advance, so park returns straight away
+			if (!this.woken)
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(MAX_PARK_MILLIS));
+			this.waiter = null;
+			this.woken = false;
+		}
+
+		public void wake() {
+			this.woken = true;
+			Thread waiter = this.waiter;
+			if (waiter != null)
+				LockSupport.unpark(waiter);
+		}
+	}
+}
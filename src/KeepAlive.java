@@ -2,13 +2,12 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class responsible for tracking the KeepAlive status for each Ringo, and updating the Tracker. 
- * This class does not schedule the updating on its own.
+ * The updating is scheduled on the Ringo's TimerWheel.
  * @author andrewray
  *
  */
@@ -19,9 +18,11 @@ public class KeepAlive implements Runnable {
 	private LinkedBlockingQueue<RingoPacket> outq;
 	private RingTracker tracker;
 	private RingoPacketFactory factory;
+	private PeerRegistry peers;
 	private Hashtable<HostInformation, Long> times;
-	private TimerTask keepAliveTimer;
-	private Timer timer;
+	private HostInformation[] byPeer;
+	private TimerWheel timers;
+	private TimerWheel.Timeout keepAliveTimer;
 	
 	/**
 	 * 
@@ -29,12 +30,16 @@ public class KeepAlive implements Runnable {
 	 * @param outq Queue to put KeepAlive Responses into
 	 * @param factory Object that simplifies the RingoPacket constructor
 	 * @param tracker Tracker to notify with new Ringo States
+	 * @param peers Registry the Ringo interns its endpoints in
+	 * @param timers Timer the KeepAliveTimerTask is scheduled on
 	 */
-	public KeepAlive(LinkedBlockingQueue<RingoPacket> inq, LinkedBlockingQueue<RingoPacket> outq, RingoPacketFactory factory, RingTracker tracker) {
+	public KeepAlive(LinkedBlockingQueue<RingoPacket> inq, LinkedBlockingQueue<RingoPacket> outq, RingoPacketFactory factory, RingTracker tracker, PeerRegistry peers, TimerWheel timers) {
 		this.inq = inq;
 		this.outq = outq;
 		this.factory = factory;
 		this.tracker = tracker;
+		this.peers = peers;
+		this.timers = timers;
 		this.times = new Hashtable<>();
 	}
 
@@ -42,14 +47,16 @@ public class KeepAlive implements Runnable {
 	public void run() {
 		// Setup the times Hashtable
 		Iterator<HostInformation> it = tracker.getHosts().iterator();
-		while (it.hasNext()) {
-			HostInformation host = it.next();
-			times.put(host, System.currentTimeMillis());
+		synchronized (times) {
+			this.byPeer = new HostInformation[peers.size()];
+			while (it.hasNext()) {
+				HostInformation host = it.next();
+				times.put(host, System.currentTimeMillis());
+				byPeer[host.getPeer().getId()] = host;
+			}
 		}
 		
-		this.keepAliveTimer = new KeepAliveTimerTask(this, outq, factory);
-		this.timer = new Timer();
-		timer.scheduleAtFixedRate(this.keepAliveTimer, KEEPALIVE_DELAY_MILLIS, KEEPALIVE_DELAY_MILLIS);
+		this.keepAliveTimer = timers.scheduleAtFixedRate(new KeepAliveTimerTask(this, outq, factory), KEEPALIVE_DELAY_MILLIS, KEEPALIVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
 		
 		while (true) {
 			try {
@@ -64,6 +71,7 @@ public class KeepAlive implements Runnable {
 						times.put(getSelf(), System.currentTimeMillis());
 					}
 				}
+				factory.release(in);
 			} catch (InterruptedException e) {
 				System.err.println("Cannot continue processing Keep-Alive Events: Interrupted");
 			}
@@ -105,22 +113,16 @@ public class KeepAlive implements Runnable {
 	} 
 	
 	/**
-	 * Searches hosts for a HostInformation that matches the parameters.
+	 * Looks up the HostInformation that matches the parameters by its peer id.
 	 * Only call within a synchronized block or method
 	 * 
 	 * @param hostname Source Hostname from RingoPacket
 	 * @param port Source Port from RingoPacket
-	 * @return 
+	 * @return null if the Ringo isn't one of the hosts
 	 */
 	private HostInformation getHostFromFields(String hostname, int port) {
-		HostInformation ret = null;
-		for (HostInformation host : times.keySet()) {
-			if (host.hostString().equalsIgnoreCase(hostname + ":" + port)) {
-				ret = host;
-				break;
-			}
-		}
-		return ret;
+		int id = peers.intern(hostname, port).getId();
+		return (id < byPeer.length) ? byPeer[id] : null;
 	}
 	
 	/**
@@ -2,7 +2,6 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
-import java.util.TimerTask;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
@@ -10,7 +9,7 @@ import java.util.concurrent.LinkedBlockingQueue;
  * @author andrewray
  *
  */
-public class KeepAliveTimerTask extends TimerTask {
+public class KeepAliveTimerTask implements Runnable {
 	public  static final int TIMEOUT_REPEATS = 2;
 	
 	private RingoPacketFactory factory;
@@ -42,7 +41,7 @@ public class KeepAliveTimerTask extends TimerTask {
 	 * @return KeepAlive packet
 	 */
 	private RingoPacket createReq(HostInformation info) {
-		return factory.makePacket(info.getHost(), info.getPort(), 0, 0, PacketType.KEEPALIVE);
+		return factory.makeTemplated(info.getHost(), info.getPort(), 0, 0, PacketType.KEEPALIVE);
 	}
 
 }
\ No newline at end of file
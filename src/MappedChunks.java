@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fixed-size records of a file, served as views into memory mappings.
+ *
+ * A single MappedByteBuffer can't cover more than 2 GB, so the file is
+ * mapped in segments of about SEGMENT_SIZE bytes, each holding a whole
+ * number of records. Record offsets are 64-bit. Only the most recently
+ * used segments stay referenced here; the rest are unmapped once no view
+ * into them is left. The mapped pages live in the page cache, not the heap.
+ * A READ_WRITE segment is forced to disk as it leaves the cache, and by
+ * force().
+ *
+ * Not thread-safe.
+ */
+public class MappedChunks {
+	/** Bytes mapped at once, rounded down to whole records */
+	public static final long SEGMENT_SIZE = 1L << 30;
+
+	/** Segments kept mapped between calls */
+	public static final int CACHED_SEGMENTS = 4;
+
+	private FileChannel channel;
+	private FileChannel.MapMode mode;
+	private long base;
+	private int stride;
+	private long capacity;
+	private long recordsPerSegment;
+	private LinkedHashMap<Long, MappedByteBuffer> segments;
+
+	/**
+	 * @param channel Open file; must be writable for READ_WRITE
+	 * @param mode READ_ONLY, or READ_WRITE to write through the views
+	 * @param stride Size of one record, in bytes
+	 * @param capacity Bytes of the file to cover; a READ_WRITE mapping grows the file to this size
+	 */
+	public MappedChunks(FileChannel channel, FileChannel.MapMode mode, int stride, long capacity) {
+		this(channel, mode, 0, stride, capacity);
+	}
+
+	/**
+	 * @param channel Open file; must be writable for READ_WRITE
+	 * @param mode READ_ONLY, or READ_WRITE to write through the views
+	 * @param base Offset of the first record in the file, e.g. past a header
+	 * @param stride Size of one record, in bytes
+	 * @param capacity Bytes of the records to cover; a READ_WRITE mapping grows the file to base + capacity
+	 */
+	public MappedChunks(FileChannel channel, FileChannel.MapMode mode, long base, int stride, long capacity) {
+		this.channel = channel;
+		this.mode = mode;
+		this.base = base;
+		this.stride = stride;
+		this.capacity = capacity;
+		this.recordsPerSegment = Math.max(1, SEGMENT_SIZE / stride);
+		this.segments = new LinkedHashMap<Long, MappedByteBuffer>(CACHED_SEGMENTS * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Long, MappedByteBuffer> eldest) {
+				if (size() <= CACHED_SEGMENTS)
+					return false;
+				flush(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Writes what was written through the views of the mapped segments to disk
+	 */
+	public void force() {
+		for (MappedByteBuffer mapped : this.segments.values()) {
+			flush(mapped);
+		}
+	}
+
+	/**
+	 * @param index Number of the record
+	 * @param length Bytes of the record to view, at most the stride
+	 * @return A view of the first length bytes of the record, from position 0
+	 * @throws IOException if the segment holding the record can't be mapped
+	 */
+	public ByteBuffer view(long index, int length) throws IOException {
+		long segment = index / this.recordsPerSegment;
+		MappedByteBuffer mapped = this.segments.get(segment);
+		if (mapped == null) {
+			long start = segment * this.recordsPerSegment * this.stride;
+			long size = Math.min(this.recordsPerSegment * this.stride, this.capacity - start);
+			mapped = this.channel.map(this.mode, this.base + start, size);
+			this.segments.put(segment, mapped);
+		}
+
+		int offset = (int) ((index % this.recordsPerSegment) * this.stride);
+		ByteBuffer view = mapped.duplicate();
+		view.limit(offset + length);
+		view.position(offset);
+		return view.slice();
+	}
+
+	/**
+	 * @param mapped Segment to write to disk, if it can be written to
+	 */
+	private void flush(MappedByteBuffer mapped) {
+		if (this.mode == FileChannel.MapMode.READ_WRITE) {
+			mapped.force();
+		}
+	}
+}
@@ -0,0 +1,188 @@
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Packs outgoing RingoPackets into datagrams.
+ *
+ * Encoded packets are self-delimiting, so several of them can simply be
+ * written back to back into one datagram and decoded one after the other
+ * on the receiving side. Control packets (everything without a payload)
+ * headed for the same Ringo are appended to an open bundle for that Ringo
+ * until it reaches MAX_BUNDLE_SIZE. DATA packets always get a datagram of
+ * their own, since a chunk is already sized to fill one.
+ *
+ * Bundles are closed by flush(), or when they are full. Closed datagrams
+ * wait in order until the sender takes them with peek()/poll() and hands
+ * the buffer back with recycle(). Buffers come from a pool, so nothing is
+ * allocated once the pool is warm.
+ *
+ * Not thread-safe; each sending thread owns one.
+ */
+public class PacketCoalescer {
+	/** A bundle is closed once it reaches one unfragmented datagram on an Ethernet MTU */
+	public static final int MAX_BUNDLE_SIZE = 1500 - RingoPacketCodec.IP_UDP_OVERHEAD;
+
+	/** Idle datagram buffers kept around */
+	public static final int BUFFER_POOL_SIZE = 32;
+
+	private BoundedPool<ByteBuffer> buffers;
+	private LinkedHashMap<InetSocketAddress, ByteBuffer> open;
+	private ArrayDeque<ByteBuffer> ready;
+	private ArrayDeque<InetSocketAddress> readyTargets;
+
+	/**
+	 * @param direct true to encode into direct buffers (for a DatagramChannel),
+	 *        false for heap buffers backed by an array (for a DatagramSocket)
+	 */
+	public PacketCoalescer(boolean direct) {
+		this.buffers = new BoundedPool<ByteBuffer>(BUFFER_POOL_SIZE, () -> direct
+				? ByteBuffer.allocateDirect(RingoPacketCodec.MAX_DATAGRAM_SIZE)
+				: ByteBuffer.allocate(RingoPacketCodec.MAX_DATAGRAM_SIZE));
+		this.open = new LinkedHashMap<InetSocketAddress, ByteBuffer>();
+		this.ready = new ArrayDeque<ByteBuffer>();
+		this.readyTargets = new ArrayDeque<InetSocketAddress>();
+	}
+
+	/**
+	 * Encodes a packet into the datagram it will travel in. The packet isn't
+	 * referenced afterwards, so the caller may release it right away.
+	 * @param packet Packet to send
+	 * @param target Address of the Ringo it is sent to
+	 * @throws java.nio.BufferOverflowException if the packet doesn't fit into one datagram
+	 */
+	public void add(RingoPacket packet, InetSocketAddress target) {
+		if (packet.getPayload() != null) {
+			// keep the order of packets to the same Ringo
+			close(target);
+			ByteBuffer datagram = acquire();
+			try {
+				RingoPacketCodec.encode(packet, datagram);
+			} catch (RuntimeException e) {
+				this.buffers.release(datagram);
+				throw e;
+			}
+			enqueue(datagram, target);
+			return;
+		}
+
+		ByteBuffer bundle = this.open.get(target);
+		if (bundle == null) {
+			bundle = acquire();
+			this.open.put(target, bundle);
+		}
+
+		int start = bundle.position();
+		try {
+			RingoPacketCodec.encode(packet, bundle);
+		} catch (RuntimeException e) {
+			bundle.position(start);
+			throw e;
+		}
+
+		if (bundle.position() > MAX_BUNDLE_SIZE && start > 0) {
+			// the packet overflowed a bundle that already had others in it, so it starts the next one
+			ByteBuffer overflow = bundle.duplicate();
+			overflow.flip();
+			overflow.position(start);
+			bundle.position(start);
+			close(target);
+
+			bundle = acquire();
+			bundle.put(overflow);
+			this.open.put(target, bundle);
+		}
+
+		if (bundle.position() >= MAX_BUNDLE_SIZE) {
+			close(target);
+		}
+	}
+
+	/**
+	 * Closes every open bundle, so all added packets are ready to be sent
+	 */
+	public void flush() {
+		Iterator<Map.Entry<InetSocketAddress, ByteBuffer>> iter = this.open.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<InetSocketAddress, ByteBuffer> entry = iter.next();
+			iter.remove();
+			enqueue(entry.getValue(), entry.getKey());
+		}
+	}
+
+	/**
+	 * Drops every open and ready datagram, e.g. while the Ringo is offline
+	 */
+	public void clear() {
+		flush();
+		while (hasReady()) {
+			recycle(poll());
+		}
+	}
+
+	/**
+	 * @return true if a closed datagram is waiting to be sent
+	 */
+	public boolean hasReady() {
+		return !this.ready.isEmpty();
+	}
+
+	/**
+	 * @return The next datagram to send, flipped and ready to be written, or null if none.
+	 *         It stays queued, so a send that doesn't go through can be retried.
+	 */
+	public ByteBuffer peek() {
+		return this.ready.peek();
+	}
+
+	/**
+	 * @return Address of the datagram returned by peek()
+	 */
+	public InetSocketAddress peekTarget() {
+		return this.readyTargets.peek();
+	}
+
+	/**
+	 * Removes the next datagram once it has been sent. Its buffer should be
+	 * passed to recycle() when the caller is done with it.
+	 * @return The datagram that peek() returned, or null if none
+	 */
+	public ByteBuffer poll() {
+		this.readyTargets.poll();
+		return this.ready.poll();
+	}
+
+	/**
+	 * Returns a sent datagram's buffer to the pool
+	 * @param datagram Buffer previously returned by poll()
+	 */
+	public void recycle(ByteBuffer datagram) {
+		this.buffers.release(datagram);
+	}
+
+	private ByteBuffer acquire() {
+		ByteBuffer buffer = this.buffers.acquire();
+		buffer.clear();
+		return buffer;
+	}
+
+	private void close(InetSocketAddress target) {
+		ByteBuffer bundle = this.open.remove(target);
+		if (bundle != null) {
+			enqueue(bundle, target);
+		}
+	}
+
+	private void enqueue(ByteBuffer datagram, InetSocketAddress target) {
+		datagram.flip();
+		if (!datagram.hasRemaining()) {
+			this.buffers.release(datagram);
+			return;
+		}
+		this.ready.add(datagram);
+		this.readyTargets.add(target);
+	}
+}
@@ -0,0 +1,344 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Received packets, sorted into one mailbox per packet type and sending
+ * Ringo, so a packet of a given type from a given Ringo is found without
+ * looking at everything else that arrived.
+ *
+ * Senders are interned in a PeerRegistry, and a mailbox is found by the
+ * type's ordinal and the peer's id, so taking or discarding the packets of
+ * one type and sender is O(1) and doesn't allocate. Within a mailbox
+ * packets keep their arrival order. Taking a packet from any sender, or of
+ * any type, looks at the head of every mailbox it could come from and takes
+ * the one filed first, so no sender or type is starved by a busier one.
+ *
+ * A packet whose twin is still waiting is dropped instead of filed, see
+ * DuplicateFilter.
+ *
+ * Like SignallingQueue, a callback runs whenever a packet is added, so a
+ * consumer idling with an IdleStrategy can be woken. The poll methods
+ * block on the mailbox itself, up to a timeout.
+ *
+ * Safe to use from every thread.
+ */
+public class PacketMailbox {
+	private static final PacketType[] TYPES = PacketType.values();
+
+	private PeerRegistry peers;
+	private ArrayList<ArrayList<ArrayDeque<RingoPacket>>> boxes;
+	private int size;
+	private long arrivals;
+	private DuplicateFilter duplicates;
+	private volatile Runnable signal;
+
+	/**
+	 * @param peers Registry the senders of packets are interned in
+	 */
+	public PacketMailbox(PeerRegistry peers) {
+		this.peers = peers;
+		this.boxes = new ArrayList<ArrayList<ArrayDeque<RingoPacket>>>(TYPES.length);
+		for (int i = 0; i < TYPES.length; i++) {
+			this.boxes.add(new ArrayList<ArrayDeque<RingoPacket>>());
+		}
+		this.size = 0;
+		this.arrivals = 0;
+		this.duplicates = new DuplicateFilter();
+	}
+
+	/**
+	 * @param signal Run after every added packet, or null for none
+	 */
+	public void setSignal(Runnable signal) {
+		this.signal = signal;
+	}
+
+	/**
+	 * Files a packet under its type and sender, unless it is a duplicate of
+	 * one still waiting
+	 * @param packet Received packet
+	 * @return false if the packet was dropped as a duplicate
+	 */
+	public boolean add(RingoPacket packet) {
+		PeerRegistry.Peer source = this.peers.intern(packet.getSourceIP(), packet.getSourcePort());
+		synchronized (this) {
+			if (!this.duplicates.admit(packet, source.getId()))
+				return false;
+			packet.setArrival(this.arrivals++);
+			box(packet.getType(), source.getId(), true).addLast(packet);
+			this.size++;
+			notifyAll();
+		}
+
+		Runnable signal = this.signal;
+		if (signal != null)
+			signal.run();
+		return true;
+	}
+
+	/**
+	 * Takes the oldest packet of a type, from whichever Ringo sent one
+	 * @param type Type of packet to take
+	 * @return The packet, or null if there is none
+	 */
+	public synchronized RingoPacket take(PacketType type) {
+		ArrayDeque<RingoPacket> oldest = oldest(type, null);
+		if (oldest == null)
+			return null;
+		return removed(oldest.pollFirst());
+	}
+
+	/**
+	 * Takes the oldest packet of a type sent by the given Ringo
+	 * @param type Type of packet to take
+	 * @param hostname Source hostname of the packet
+	 * @param port Source port of the packet
+	 * @return The packet, or null if there is none
+	 */
+	public synchronized RingoPacket take(PacketType type, String hostname, int port) {
+		ArrayDeque<RingoPacket> box = box(type, this.peers.intern(hostname, port).getId(), false);
+		if (box == null || box.isEmpty())
+			return null;
+		return removed(box.pollFirst());
+	}
+
+	/**
+	 * Takes the oldest packet of a type sent by the given Ringo for one
+	 * transfer. Only the mailbox of that type and sender is searched.
+	 * @param type Type of packet to take
+	 * @param hostname Source hostname of the packet
+	 * @param port Source port of the packet
+	 * @param transferId Transfer the packet belongs to, or 0 for any
+	 * @return The packet, or null if there is none
+	 */
+	public synchronized RingoPacket take(PacketType type, String hostname, int port, long transferId) {
+		if (transferId == 0)
+			return take(type, hostname, port);
+
+		ArrayDeque<RingoPacket> box = box(type, this.peers.intern(hostname, port).getId(), false);
+		if (box == null)
+			return null;
+
+		Iterator<RingoPacket> iter = box.iterator();
+		while (iter.hasNext()) {
+			RingoPacket packet = iter.next();
+			if (packet.getTransferId() == transferId) {
+				iter.remove();
+				return removed(packet);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Takes the packet with the highest sequence number of a type sent by the
+	 * given Ringo for one transfer, and drops the others. Meant for cumulative
+	 * acks, where only the highest one still says anything. Of several with the
+	 * same sequence number the last one to arrive is kept, its SACK ranges are
+	 * the newest.
+	 * @param type Type of packet to take
+	 * @param hostname Source hostname of the packet
+	 * @param port Source port of the packet
+	 * @param transferId Transfer the packet belongs to, or 0 for any
+	 * @return The packet, or null if there is none
+	 */
+	public synchronized RingoPacket takeHighest(PacketType type, String hostname, int port, long transferId) {
+		ArrayDeque<RingoPacket> box = box(type, this.peers.intern(hostname, port).getId(), false);
+		if (box == null)
+			return null;
+
+		RingoPacket highest = null;
+		Iterator<RingoPacket> iter = box.iterator();
+		while (iter.hasNext()) {
+			RingoPacket packet = iter.next();
+			if (transferId == 0 || packet.getTransferId() == transferId) {
+				iter.remove();
+				removed(packet);
+				if (highest == null || packet.getSequenceNumber() >= highest.getSequenceNumber()) {
+					highest = packet;
+				}
+			}
+		}
+		return highest;
+	}
+
+	/**
+	 * Like take(type), but waits for a packet if there is none yet
+	 * @param type Type of packet to take
+	 * @param timeout How long to wait
+	 * @param unit Unit of timeout
+	 * @return The packet, or null if none arrived in time
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public synchronized RingoPacket poll(PacketType type, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		RingoPacket packet = take(type);
+		while (packet == null) {
+			long left = deadline - System.nanoTime();
+			if (left <= 0)
+				return null;
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+			packet = take(type);
+		}
+		return packet;
+	}
+
+	/**
+	 * Like take(type, hostname, port), but waits for a packet if there is none yet
+	 * @param type Type of packet to take
+	 * @param hostname Source hostname of the packet
+	 * @param port Source port of the packet
+	 * @param timeout How long to wait
+	 * @param unit Unit of timeout
+	 * @return The packet, or null if none arrived in time
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public synchronized RingoPacket poll(PacketType type, String hostname, int port, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		RingoPacket packet = take(type, hostname, port);
+		while (packet == null) {
+			long left = deadline - System.nanoTime();
+			if (left <= 0)
+				return null;
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+			packet = take(type, hostname, port);
+		}
+		return packet;
+	}
+
+	/**
+	 * Takes the oldest packet of any type from any Ringo, waiting until there is one
+	 * @return The packet
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public synchronized RingoPacket take() throws InterruptedException {
+		while (this.size == 0) {
+			wait();
+		}
+		ArrayDeque<RingoPacket> oldest = null;
+		for (int i = 0; i < TYPES.length; i++) {
+			oldest = oldest(TYPES[i], oldest);
+		}
+		return removed(oldest.pollFirst());
+	}
+
+	/**
+	 * Drops every packet of a type
+	 * @param type Type of packet to drop
+	 */
+	public synchronized void discard(PacketType type) {
+		for (ArrayDeque<RingoPacket> box : this.boxes.get(type.ordinal())) {
+			while (box != null && !box.isEmpty()) {
+				removed(box.pollFirst());
+			}
+		}
+		// the classic transfers discard by type once they are over, so are their duplicates
+		this.duplicates.forget(type);
+	}
+
+	/**
+	 * Drops every packet of a type sent by the given Ringo
+	 * @param type Type of packet to drop
+	 * @param hostname Source hostname of the packets
+	 * @param port Source port of the packets
+	 */
+	public synchronized void discard(PacketType type, String hostname, int port) {
+		int peer = this.peers.intern(hostname, port).getId();
+		ArrayDeque<RingoPacket> box = box(type, peer, false);
+		while (box != null && !box.isEmpty()) {
+			removed(box.pollFirst());
+		}
+		this.duplicates.forget(type, peer);
+	}
+
+	/**
+	 * Drops every packet of a type that belongs to one transfer
+	 * @param type Type of packet to drop
+	 * @param transferId Id of the transfer
+	 */
+	public synchronized void discard(PacketType type, long transferId) {
+		for (ArrayDeque<RingoPacket> box : this.boxes.get(type.ordinal())) {
+			if (box == null)
+				continue;
+			Iterator<RingoPacket> iter = box.iterator();
+			while (iter.hasNext()) {
+				RingoPacket packet = iter.next();
+				if (packet.getTransferId() == transferId) {
+					iter.remove();
+					removed(packet);
+				}
+			}
+		}
+		// the transfer is over, so are its duplicates
+		this.duplicates.forget(type, transferId);
+	}
+
+	/**
+	 * Drops every packet
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < TYPES.length; i++) {
+			discard(TYPES[i]);
+		}
+		this.duplicates.clear();
+	}
+
+	/**
+	 * @return Number of packets in all mailboxes
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * Accounts for a packet leaving its mailbox
+	 * @param packet Packet that was taken or discarded
+	 * @return packet
+	 */
+	private RingoPacket removed(RingoPacket packet) {
+		this.size--;
+		this.duplicates.release(packet, this.peers.intern(packet.getSourceIP(), packet.getSourcePort()).getId());
+		return packet;
+	}
+
+	/**
+	 * @param type Type of packet
+	 * @param oldest Mailbox with the oldest head found so far, or null
+	 * @return Whichever of oldest and the mailboxes of type has the oldest head, or null if all are empty
+	 */
+	private ArrayDeque<RingoPacket> oldest(PacketType type, ArrayDeque<RingoPacket> oldest) {
+		for (ArrayDeque<RingoPacket> box : this.boxes.get(type.ordinal())) {
+			if (box != null && !box.isEmpty()
+					&& (oldest == null || box.peekFirst().getArrival() < oldest.peekFirst().getArrival())) {
+				oldest = box;
+			}
+		}
+		return oldest;
+	}
+
+	/**
+	 * @param type Type of packet
+	 * @param peer Id of the sending peer
+	 * @param create true to create the mailbox if it doesn't exist yet
+	 * @return The mailbox, or null if it doesn't exist and create is false
+	 */
+	private ArrayDeque<RingoPacket> box(PacketType type, int peer, boolean create) {
+		ArrayList<ArrayDeque<RingoPacket>> byPeer = this.boxes.get(type.ordinal());
+		if (peer >= byPeer.size()) {
+			if (!create)
+				return null;
+			while (byPeer.size() <= peer) {
+				byPeer.add(null);
+			}
+		}
+
+		ArrayDeque<RingoPacket> box = byPeer.get(peer);
+		if (box == null && create) {
+			box = new ArrayDeque<RingoPacket>();
+			byPeer.set(peer, box);
+		}
+		return box;
+	}
+}
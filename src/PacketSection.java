@@ -0,0 +1,14 @@
+/**
+ * Enum describing the optional parts of a RingoPacket body.
+ * Each PacketType declares which sections it carries; every other
+ * section stays unallocated and is never written to the wire.
+ */
+public enum PacketSection {
+	LSA,
+	RTT,
+	ROUTE,
+	FILE_NAME,
+	PAYLOAD,
+	TRANSFER,
+	SACK
+}
@@ -1,23 +1,44 @@
+import java.util.EnumSet;
+
 /**
- * Enum describing the type of a RingoPacket
+ * Enum describing the type of a RingoPacket, and the
+ * body sections a packet of that type may carry
  * 
  * @author sainaidu
  * @author andrewray
  */
 public enum PacketType {
 	INIT_REQ,
-	INIT_RES,
+	INIT_RES(PacketSection.LSA, PacketSection.RTT),
 	SYN,
 	ACK,
-    LSA,
-    LSA_COMPLETE,
+    LSA(PacketSection.LSA),
+    LSA_COMPLETE(PacketSection.LSA),
     RTT_REQ,
-    RTT_RES,
+    RTT_RES(PacketSection.RTT),
     RTT_COMPLETE,
     KEEPALIVE,
-    DATA,
-    DATA_ACK,
+    DATA(PacketSection.ROUTE, PacketSection.FILE_NAME, PacketSection.PAYLOAD, PacketSection.TRANSFER),
+    DATA_ACK(PacketSection.TRANSFER, PacketSection.SACK),
+    DATA_NACK(PacketSection.TRANSFER),
     PING_REQ,
     PING_RES,
-    PING_COMPLETE
-}
\ No newline at end of file
+    PING_COMPLETE;
+
+	private final EnumSet<PacketSection> sections;
+
+	PacketType(PacketSection... sections) {
+		this.sections = EnumSet.noneOf(PacketSection.class);
+		for (PacketSection section : sections) {
+			this.sections.add(section);
+		}
+	}
+
+	/**
+	 * @param section body section to check
+	 * @return true if packets of this type may carry the section
+	 */
+	public boolean carries(PacketSection section) {
+		return sections.contains(section);
+	}
+}
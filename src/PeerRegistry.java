@@ -0,0 +1,185 @@
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns the endpoints of the Ringos this Ringo talks to.
+ *
+ * Every endpoint is assigned a compact id, in the order it was first seen,
+ * and its address is resolved once when it is interned. Afterwards looking
+ * it up, by "hostname:port" key or by hostname and port as they appear in a
+ * RingoPacket, neither parses strings nor resolves names, and a lookup by
+ * hostname and port doesn't allocate. Neither does finding an interned
+ * hostname by its bytes in a received datagram.
+ *
+ * Safe to use from every thread. Lookups don't lock; interning a new
+ * endpoint does.
+ */
+public class PeerRegistry {
+
+	/**
+	 * An interned endpoint. Peers are only ever created by the registry,
+	 * so they can be compared by identity.
+	 */
+	public static final class Peer {
+		private final int id;
+		private final String host;
+		private final int port;
+		private final String key;
+		private final byte[] hostBytes;
+		private final InetSocketAddress address;
+
+		private Peer(int id, String host, int port) {
+			this.id = id;
+			this.host = host;
+			this.port = port;
+			this.key = host + ":" + port;
+			this.hostBytes = host.getBytes(StandardCharsets.UTF_8);
+			this.address = new InetSocketAddress(host, port);
+		}
+
+		/**
+		 * @return Compact id, unique within the registry and dense from 0
+		 */
+		public int getId() {
+			return id;
+		}
+
+		public String getHost() {
+			return host;
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+		/**
+		 * @return The endpoint in hostname:port layout
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return Address resolved when the peer was interned; unresolved if that failed
+		 */
+		public InetSocketAddress getAddress() {
+			return address;
+		}
+
+		public String toString() {
+			return key;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Peer> byKey;
+	private final ConcurrentHashMap<String, Peer[]> byHost;
+	private final ArrayList<Peer> byId;
+	private volatile Peer[] firstByHost;
+
+	public PeerRegistry() {
+		this.byKey = new ConcurrentHashMap<String, Peer>();
+		this.byHost = new ConcurrentHashMap<String, Peer[]>();
+		this.byId = new ArrayList<Peer>();
+		this.firstByHost = new Peer[0];
+	}
+
+	/**
+	 * @param host Hostname or IP of a Ringo
+	 * @param port Port of a Ringo
+	 * @return The peer for this endpoint, interned now if it wasn't yet
+	 */
+	public Peer intern(String host, int port) {
+		Peer[] peers = this.byHost.get(host);
+		if (peers != null) {
+			for (Peer peer : peers) {
+				if (peer.port == port)
+					return peer;
+			}
+		}
+		return add(host, port);
+	}
+
+	/**
+	 * @param key hostname:port of a Ringo
+	 * @return The peer for this endpoint, interned now if it wasn't yet
+	 * @throws IllegalArgumentException if key isn't in hostname:port layout
+	 */
+	public Peer intern(String key) throws IllegalArgumentException {
+		Peer peer = this.byKey.get(key);
+		if (peer != null)
+			return peer;
+
+		int split = key.lastIndexOf(':');
+		if (split <= 0)
+			throw new IllegalArgumentException(key + " is not in hostname:port layout");
+		return intern(key.substring(0, split), Integer.parseInt(key.substring(split + 1)));
+	}
+
+	/**
+	 * Finds an interned hostname by its UTF-8 bytes, without allocating
+	 * @param in Buffer with the hostname at its position, which is left where it is
+	 * @param length Bytes in the hostname, at most in.remaining()
+	 * @return The interned hostname, or null if no peer on that host was interned
+	 */
+	public String findHost(ByteBuffer in, int length) {
+		int start = in.position();
+		for (Peer peer : this.firstByHost) {
+			byte[] bytes = peer.hostBytes;
+			if (bytes.length != length)
+				continue;
+			int i = 0;
+			while (i < length && in.get(start + i) == bytes[i]) {
+				i++;
+			}
+			if (i == length)
+				return peer.host;
+		}
+		return null;
+	}
+
+	/**
+	 * @param id Id of an interned peer
+	 * @return The peer with that id
+	 * @throws IndexOutOfBoundsException if no peer has that id
+	 */
+	public synchronized Peer get(int id) {
+		return this.byId.get(id);
+	}
+
+	/**
+	 * @return Number of interned peers; ids run from 0 to size() - 1
+	 */
+	public synchronized int size() {
+		return this.byId.size();
+	}
+
+	private synchronized Peer add(String host, int port) {
+		// another thread may have interned it since the lock-free lookup
+		Peer[] peers = this.byHost.get(host);
+		if (peers != null) {
+			for (Peer peer : peers) {
+				if (peer.port == port)
+					return peer;
+			}
+		}
+
+		Peer peer = new Peer(this.byId.size(), host, port);
+		this.byId.add(peer);
+		this.byKey.put(peer.key, peer);
+
+		// copy-on-write, so lookups never see a half-updated array
+		Peer[] grown = (peers == null) ? new Peer[1] : Arrays.copyOf(peers, peers.length + 1);
+		grown[grown.length - 1] = peer;
+		this.byHost.put(host, grown);
+		if (peers == null) {
+			Peer[] hosts = Arrays.copyOf(this.firstByHost, this.firstByHost.length + 1);
+			hosts[hosts.length - 1] = peer;
+			this.firstByHost = hosts;
+		}
+		return peer;
+	}
+}
@@ -0,0 +1,159 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * On-disk record of which chunks of a transfer a Ringo has accepted, one
+ * bit per chunk, so a transfer interrupted by a restart picks up where it
+ * left off instead of starting over.
+ *
+ * The file is seqLength(4) and chunkSize(4) followed by the bits, and is memory-mapped, so
+ * setting a bit is a memory write that outlives the Ringo process. The bits
+ * only outlive the host once force()d, which should follow a flush of the
+ * ChunkSpool holding their chunks. A file left by a transfer of a different
+ * length or chunk size is started over, as its bits would name other bytes
+ * of the file.
+ *
+ * Not thread-safe.
+ */
+public class ProgressBitmap {
+	/** Bytes in front of the bits */
+	public static final int HEADER = 8;
+
+	private File file;
+	private MappedByteBuffer bits;
+	private int seqLength;
+	private int size;
+	private int count;
+
+	/**
+	 * Opens the bitmap in file, or creates an empty one
+	 * @param file Where the bitmap is kept
+	 * @param seqLength Number of chunks in the transfer
+	 * @param chunkSize Size every chunk but the last one was cut to
+	 * @throws IOException if the file can't be opened or mapped
+	 */
+	public ProgressBitmap(File file, int seqLength, int chunkSize) throws IOException {
+		this.file = file;
+		this.seqLength = seqLength;
+		this.size = HEADER + (seqLength + 7) / 8;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			boolean matches = channel.size() == this.size;
+			this.bits = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.size);
+			if (!matches || this.bits.getInt(0) != seqLength || this.bits.getInt(4) != chunkSize) {
+				clear();
+				this.bits.putInt(0, seqLength);
+				this.bits.putInt(4, chunkSize);
+			}
+		}
+
+		this.count = 0;
+		for (int i = HEADER; i < this.size; i++) {
+			this.count += Integer.bitCount(this.bits.get(i) & 0xFF);
+		}
+	}
+
+	/**
+	 * @param seq Sequence number of a chunk
+	 * @return true if the chunk was accepted
+	 */
+	public boolean get(int seq) {
+		return (this.bits.get(HEADER + (seq >>> 3)) & (1 << (seq & 7))) != 0;
+	}
+
+	/**
+	 * Records a chunk as accepted
+	 * @param seq Sequence number of the chunk
+	 * @return true if it wasn't accepted before
+	 */
+	public boolean set(int seq) {
+		int index = HEADER + (seq >>> 3);
+		byte current = this.bits.get(index);
+		byte updated = (byte) (current | (1 << (seq & 7)));
+		if (current == updated)
+			return false;
+		this.bits.put(index, updated);
+		this.count++;
+		return true;
+	}
+
+	/**
+	 * @param from Sequence number to start at
+	 * @return The first chunk from there on that wasn't accepted yet, or seqLength if there is none
+	 */
+	public int nextClear(int from) {
+		int seq = from;
+		while (seq < this.seqLength) {
+			if ((seq & 7) == 0 && this.bits.get(HEADER + (seq >>> 3)) == (byte) 0xFF) {
+				// a whole byte of accepted chunks
+				seq += 8;
+			} else if (!get(seq)) {
+				return seq;
+			} else {
+				seq++;
+			}
+		}
+		return this.seqLength;
+	}
+
+	/**
+	 * @param from Sequence number to start at
+	 * @return The first chunk from there on that was accepted, or seqLength if there is none
+	 */
+	public int nextSet(int from) {
+		int seq = from;
+		while (seq < this.seqLength) {
+			if ((seq & 7) == 0 && this.bits.get(HEADER + (seq >>> 3)) == 0) {
+				// a whole byte of missing chunks
+				seq += 8;
+			} else if (get(seq)) {
+				return seq;
+			} else {
+				seq++;
+			}
+		}
+		return this.seqLength;
+	}
+
+	/**
+	 * Forgets every accepted chunk, e.g. when the ChunkSpool holding them started over
+	 */
+	public void clear() {
+		for (int i = HEADER; i < this.size; i++) {
+			this.bits.put(i, (byte) 0);
+		}
+		this.count = 0;
+	}
+
+	/**
+	 * @return Number of accepted chunks
+	 */
+	public int count() {
+		return this.count;
+	}
+
+	/**
+	 * Writes the bits set so far to disk
+	 */
+	public void force() {
+		this.bits.force();
+	}
+
+	/**
+	 * Forces the bits to disk and lets go of the mapping, keeping the file for a later resume
+	 */
+	public void close() {
+		force();
+		this.bits = null;
+	}
+
+	/**
+	 * Removes the bitmap once the transfer is done
+	 */
+	public void delete() {
+		this.bits = null;
+		this.file.delete();
+	}
+}
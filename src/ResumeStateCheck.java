@@ -0,0 +1,109 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Checks that the resume state of a streamed transfer, a ProgressBitmap and
+ * its ChunkSpool, is kept across a reopen with the same chunk size, and is
+ * started over when the transfer is cut into chunks of a different size, as
+ * happens when the MTU changes between runs.
+ *
+ * Run with: java ResumeStateCheck
+ * Exits with status 1 if any check fails.
+ */
+public class ResumeStateCheck {
+	private static final int CHUNKS = 100;
+	private static final int CHUNK_SIZE = 1000;
+	private static final int OTHER_CHUNK_SIZE = 1400;
+	private static final int[] WRITTEN = { 0, 1, 7, 8, 42, 99 };
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException {
+		File progressFile = File.createTempFile("ringo-check", ".progress");
+		File spoolFile = File.createTempFile("ringo-check", ".spool");
+		progressFile.delete();
+		spoolFile.delete();
+
+		// first run: accept a few chunks and stop
+		ProgressBitmap progress = new ProgressBitmap(progressFile, CHUNKS, CHUNK_SIZE);
+		ChunkSpool spool = new ChunkSpool(spoolFile, CHUNKS, CHUNK_SIZE);
+		check(spool.isStartedOver(), "a new spool didn't start over");
+		for (int seq : WRITTEN) {
+			spool.write(chunk(seq, CHUNK_SIZE));
+			progress.set(seq);
+		}
+		spool.close();
+		progress.close();
+
+		// same chunk size: everything is still there
+		progress = new ProgressBitmap(progressFile, CHUNKS, CHUNK_SIZE);
+		spool = new ChunkSpool(spoolFile, CHUNKS, CHUNK_SIZE);
+		check(!spool.isStartedOver(), "the spool started over with the same chunk size");
+		check(progress.count() == WRITTEN.length, "kept " + progress.count() + " of " + WRITTEN.length + " chunks with the same chunk size");
+		for (int seq : WRITTEN) {
+			check(progress.get(seq), "chunk " + seq + " was forgotten");
+			RingoPacket read = new RingoPacket("127.0.0.1", 5001, "127.0.0.1", 5002, CHUNKS, seq, PacketType.DATA, Role.FORWARDER);
+			spool.read(read);
+			check(read.getPayload().equals(chunk(seq, CHUNK_SIZE).getPayload()), "chunk " + seq + " reads back differently");
+		}
+		spool.close();
+		progress.close();
+
+		// other chunk size: nothing of the first run may be trusted
+		progress = new ProgressBitmap(progressFile, CHUNKS, OTHER_CHUNK_SIZE);
+		spool = new ChunkSpool(spoolFile, CHUNKS, OTHER_CHUNK_SIZE);
+		check(spool.isStartedOver(), "the spool didn't start over with another chunk size");
+		check(progress.count() == 0, "kept " + progress.count() + " chunks with another chunk size");
+		check(progress.nextSet(0) == CHUNKS, "chunk " + progress.nextSet(0) + " is still marked with another chunk size");
+		spool.delete();
+		progress.delete();
+
+		// a bitmap that outlived its spool is cleared by the spool starting over
+		progress = new ProgressBitmap(progressFile, CHUNKS, CHUNK_SIZE);
+		progress.set(3);
+		progress.close();
+		progress = new ProgressBitmap(progressFile, CHUNKS, CHUNK_SIZE);
+		spool = new ChunkSpool(spoolFile, CHUNKS, CHUNK_SIZE);
+		if (spool.isStartedOver()) {
+			progress.clear();
+		}
+		check(progress.count() == 0 && !progress.get(3), "a bit survived without its spool");
+		spool.delete();
+		progress.delete();
+
+		if (failures > 0) {
+			System.out.println(failures + " check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+	}
+
+	/**
+	 * @param seq Sequence number
+	 * @param chunkSize Size the transfer is cut to
+	 * @return DATA packet with a payload that tells the chunk apart
+	 */
+	private static RingoPacket chunk(int seq, int chunkSize) {
+		RingoPacket chunk = new RingoPacket("127.0.0.1", 5001, "127.0.0.1", 5002, CHUNKS, seq, PacketType.DATA, Role.FORWARDER);
+		ByteBuffer payload = ByteBuffer.allocate(chunkSize);
+		for (int i = 0; i < chunkSize; i++) {
+			payload.put((byte) (seq * 31 + i));
+		}
+		payload.flip();
+		chunk.setPayload(payload);
+		chunk.setChunkSize(chunkSize);
+		return chunk;
+	}
+
+	/**
+	 * @param ok Outcome of a check
+	 * @param message What went wrong if it failed
+	 */
+	private static void check(boolean ok, String message) {
+		if (!ok) {
+			System.out.println("FAILED: " + message);
+			failures++;
+		}
+	}
+}
@@ -12,26 +12,27 @@ public class RingTracker {
 	private Hashtable<Pair<HostInformation, HostInformation>, Long> rtt;
 	private int n;
 	private ArrayList<HostInformation> ring;
+	private PeerRegistry peers;
 	
 	/**
 	 * Tracks the Ring structure, Ringo statuses, and RTTs for all Ringos in the Ring.
-	 * @param me The host:port for THIS Ringo. Equivalent to Ringo.localname:Ringo.localport
+	 * @param me The endpoint of THIS Ringo
+	 * @param peers Registry the Ringo interns its endpoints in
 	 * @param rtt rtt array from Ringo
 	 * @param indexRTT 
 	 */
-	public RingTracker(String me, long[][] rtt, Hashtable<Integer, String> indexRTT) {
+	public RingTracker(PeerRegistry.Peer me, PeerRegistry peers, long[][] rtt, Hashtable<Integer, String> indexRTT) {
+		this.peers = peers;
 		hosts = new ArrayList<HostInformation>();
 		this.rtt = new Hashtable<Pair<HostInformation, HostInformation>, Long>();
 		n = rtt[0].length;
 		this.ring = new ArrayList<>();
 		
 		for (Integer i : indexRTT.keySet()) {
-			String host = indexRTT.get(i);
-			String ip = host.split(":")[0];
-			int port = Integer.parseInt(host.split(":")[1]);
+			PeerRegistry.Peer peer = peers.intern(indexRTT.get(i));
 			boolean active = true; // each host is assumed to be active at the start
-			boolean local = host.equalsIgnoreCase(me);
-			hosts.add(new HostInformation(HostState.UP, local, ip, port));
+			boolean local = (peer == me);
+			hosts.add(new HostInformation(HostState.UP, local, peer));
 		}
 		
 		// build up RTT information
@@ -227,11 +228,18 @@ public class RingTracker {
 		if (hostString == null || hostString.isEmpty())
 			return false;
 		
-		String host = hostString.split(":")[0];
-		int port = Integer.parseInt(hostString.split(":")[1]);
+		return isOnline(peers.intern(hostString));
+	}
+	
+	/**
+	 * Checks to see if some host is online or not
+	 * @param peer Endpoint of the host
+	 * @return
+	 */
+	public boolean isOnline(PeerRegistry.Peer peer) {
 		synchronized (hosts) {
 			for (HostInformation ringo : hosts) {
-				if (ringo.getHost().equals(host) && ringo.getPort() == port)
+				if (ringo.getPeer() == peer)
 					return ringo.isActive();
 			}
 			return false;
@@ -308,10 +316,9 @@ public class RingTracker {
 	 * @throws IllegalArgumentException HostInformation with given key not found
 	 */
 	private HostInformation getInfoByHoststring(String key) {
-		String host = key.split(":")[0];
-		int port = Integer.parseInt(key.split(":")[1]);
+		PeerRegistry.Peer peer = peers.intern(key);
 		for (HostInformation h : hosts) {
-			if (h.getHost().equalsIgnoreCase(host) && h.getPort() == port) {
+			if (h.getPeer() == peer) {
 				return h;
 			}
 		}
@@ -1,22 +1,31 @@
 import java.net.DatagramSocket;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Collections;
 import java.lang.Thread;
 import java.util.Scanner;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.StandardOpenOption;
 import java.util.Date;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
 
 /**
  * The Ringo class represents a network node on the Ringo network.
@@ -39,27 +48,34 @@ public class Ringo implements Runnable {
 	private LinkedBlockingQueue<String> userCommandList;
 
 	private Hashtable<String, Integer> lsa;
+	private ArrayList<String> lsaLog;
+	private Hashtable<String, Integer> lsaAcked;
+	private Hashtable<String, Integer> lsaHeard;
 	private Hashtable<String, Integer> rttIndex;
 	private Hashtable<Integer, String> indexRtt;
 	private long [][] rtt;
-	private LinkedBlockingQueue<RingoPacket> recvQueue;
-	private LinkedBlockingQueue<RingoPacket> sendQueue;
-	private LinkedBlockingQueue<String> sendFileList;
+	private PacketMailbox recvQueue;
+	private SignallingQueue<RingoPacket> sendQueue;
+	private SignallingQueue<String> sendFileList;
 	private LinkedBlockingQueue<String> outputQueue;
 	private ArrayList<String> ringRoute;
 	private LinkedBlockingQueue<RingoPacket> keepAliveQueue;
 	private RingTracker tracker;
 	private RingoPacketFactory factory;
+	private PeerRegistry peers;
+	private PeerRegistry.Peer self;
 	private KeepAlive keepalive;
 	private Thread keepAliveThread;
+	private TimerWheel timers;
 	private boolean initialized;
 	private int delay;
+	private final RingoConfig config;
 
 	/**
 	 * The constructor accepts all of the command-line arguments specified in the
 	 * reference material
 	 */
-	public Ringo(Role role, int localPort, String pocName, int pocPort, int ringSize, DatagramSocket socket, LinkedBlockingQueue<String> userCommandList) {
+	public Ringo(Role role, int localPort, String pocName, int pocPort, int ringSize, DatagramSocket socket, LinkedBlockingQueue<String> userCommandList, RingoConfig config) {
 		this.userCommandList = userCommandList;
 		this.socket = socket;
 		this.role = role;
@@ -85,6 +101,9 @@ public class Ringo implements Runnable {
 		this.pocPort = pocPort;
 		this.ringSize = ringSize;
 		this.lsa = new Hashtable<String, Integer>();
+		this.lsaLog = new ArrayList<String>();
+		this.lsaAcked = new Hashtable<String, Integer>();
+		this.lsaHeard = new Hashtable<String, Integer>();
 		this.rttIndex = new Hashtable<String, Integer>();
 		this.indexRtt = new Hashtable<Integer, String>();
 		this.rtt = new long[ringSize][ringSize];
@@ -93,15 +112,26 @@ public class Ringo implements Runnable {
 				this.rtt[i][j] = -1;
 			}
 		}
-		this.recvQueue = new LinkedBlockingQueue<RingoPacket>();
-		this.sendQueue = new LinkedBlockingQueue<RingoPacket>();
-		this.sendFileList = new LinkedBlockingQueue<String>();
+		this.sendQueue = new SignallingQueue<RingoPacket>();
+		this.sendFileList = new SignallingQueue<String>();
 		this.outputQueue = new LinkedBlockingQueue<String>();
 		this.ringRoute = null;
 		this.keepAliveQueue = new LinkedBlockingQueue<RingoPacket>();
-		this.factory = new RingoPacketFactory(localName, localPort, role, ringSize);
+		this.factory = new RingoPacketFactory(localName, localPort, role);
+		this.peers = new PeerRegistry();
+		this.recvQueue = new PacketMailbox(this.peers);
+		this.self = this.peers.intern(this.localName, this.localPort);
+		this.timers = new TimerWheel();
 		this.initialized = false;
 		this.delay = 0;
+		this.config = config;
+	}
+
+	/**
+	 * @return Timer shared by this Ringo's threads, started by run()
+	 */
+	TimerWheel getTimers() {
+		return this.timers;
 	}
 
 	/**
@@ -117,31 +147,39 @@ public class Ringo implements Runnable {
 	 * the "most important" function overall.
 	 */
 	public void run() {
-		LinkedBlockingQueue<RingoPacket> recvQueue = this.recvQueue;
+		PacketMailbox recvQueue = this.recvQueue;
 		LinkedBlockingQueue<RingoPacket> sendQueue = this.sendQueue;
 		LinkedBlockingQueue<RingoPacket> keepAliveQueue = this.keepAliveQueue;
 
 
-		Thread netIn = new Thread(new ReceiverThread(recvQueue, keepAliveQueue));
-		Thread netOut = new Thread(new SenderThread(sendQueue));
-		netIn.start();
-		netOut.start();
+		Thread netIn;
+		Thread netOut;
+		if (this.config.getTransport() == RingoConfig.Transport.NIO) {
+			// one thread does both directions
+			netIn = new Thread(new SelectorThread(this.sendQueue, this.socket.getChannel()));
+			netOut = netIn;
+			netIn.start();
+		} else {
+			netIn = new Thread(new ReceiverThread(recvQueue, keepAliveQueue));
+			netOut = new Thread(new SenderThread(this.sendQueue));
+			netIn.start();
+			netOut.start();
+		}
 
 		if (this.pocName != "0" && this.pocPort != 0) {
 			RingoPacket responseIn = null;
-			RingoPacket packet = new RingoPacket(this.localName, this.localPort, this.pocName, this.pocPort, 0, 0, PacketType.PING_REQ, this.role, this.ringSize);
+			RingoPacket packet = new RingoPacket(this.localName, this.localPort, this.pocName, this.pocPort, 0, 0, PacketType.PING_REQ, this.role);
 			sendQueue.add(packet);
-			responseIn = this.takeType(recvQueue, PacketType.PING_RES);
+			responseIn = recvQueue.take(PacketType.PING_RES);
 			if (responseIn == null) {
 				System.out.println("\nPoint of contact not reachable currently. Continuing to attempt connection...");
 			}
 
 			while(responseIn == null) {
-				packet = new RingoPacket(this.localName, this.localPort, this.pocName, this.pocPort, 0, 0, PacketType.PING_REQ, this.role, this.ringSize);
+				packet = new RingoPacket(this.localName, this.localPort, this.pocName, this.pocPort, 0, 0, PacketType.PING_REQ, this.role);
 				sendQueue.add(packet);
-				responseIn = this.takeType(recvQueue, PacketType.PING_RES);
 				try {
-					Thread.sleep(200);
+					responseIn = recvQueue.poll(PacketType.PING_RES, 200, TimeUnit.MILLISECONDS);
 				} catch (Exception e) {
 
 				}
@@ -171,8 +209,8 @@ public class Ringo implements Runnable {
 		  	e.printStackTrace();
 		  }*/
 			System.out.println("Peer discovery complete!\n");
-			flushType(recvQueue, PacketType.LSA);
-			flushType(recvQueue, PacketType.LSA_COMPLETE);
+			recvQueue.discard(PacketType.LSA);
+			recvQueue.discard(PacketType.LSA_COMPLETE);
 			System.out.println("Starting RTT Vector creation...");
 			rttVectorGeneration(recvQueue, sendQueue);
 		  /*try {
@@ -181,22 +219,22 @@ public class Ringo implements Runnable {
 		  	e.printStackTrace();
 		  }*/
 			System.out.println("RTT Vector creation complete!\n");
-			flushType(recvQueue, PacketType.LSA);
-			flushType(recvQueue, PacketType.LSA_COMPLETE);
-			flushType(recvQueue, PacketType.PING_RES);
-			flushType(recvQueue, PacketType.PING_COMPLETE);
+			recvQueue.discard(PacketType.LSA);
+			recvQueue.discard(PacketType.LSA_COMPLETE);
+			recvQueue.discard(PacketType.PING_RES);
+			recvQueue.discard(PacketType.PING_COMPLETE);
 		  /*try {
 		  	Thread.sleep(3000);
 		  } catch (Exception e) {
 		  	e.printStackTrace();
 		  }*/
-			flushType(recvQueue, PacketType.PING_RES);
-			flushType(recvQueue, PacketType.PING_COMPLETE);
+			recvQueue.discard(PacketType.PING_RES);
+			recvQueue.discard(PacketType.PING_COMPLETE);
 			System.out.println("Starting RTT Matrix convergence...");
 			rttConvergence(recvQueue, sendQueue);
-		  flushType(recvQueue, PacketType.PING_COMPLETE);
-		  flushType(recvQueue, PacketType.RTT_RES);
-		  flushType(recvQueue, PacketType.RTT_COMPLETE);
+		  recvQueue.discard(PacketType.PING_COMPLETE);
+		  recvQueue.discard(PacketType.RTT_RES);
+		  recvQueue.discard(PacketType.RTT_COMPLETE);
 		  /*try {
 		  	Thread.sleep(3000);
 		  } catch (Exception e) {
@@ -212,8 +250,9 @@ public class Ringo implements Runnable {
 
 		// (String me, long[][] rtt, Hashtable<Integer, String> indexRTT)
 
-		tracker = new RingTracker(this.localName + ":" + this.localPort, rtt, indexRtt);
-		keepalive = new KeepAlive(keepAliveQueue, sendQueue, factory, tracker);
+		tracker = new RingTracker(this.self, this.peers, rtt, indexRtt);
+		timers.start();
+		keepalive = new KeepAlive(keepAliveQueue, sendQueue, factory, tracker, this.peers, this.timers);
 		keepAliveThread = new Thread(keepalive);
 		keepAliveThread.start();
 
@@ -232,6 +271,9 @@ public class Ringo implements Runnable {
 	 */
 	private void executionLoop(Thread netIn, Thread netOut, RingTracker tracker, KeepAlive keepalive) {
 		WorkerThread workerObject = new WorkerThread(this.role, this.sendQueue, this.recvQueue, this.ringRoute, this.localName, this.localPort, this.sendFileList, this.outputQueue, tracker);
+		// received packets and new files to send are what the worker waits for
+		this.recvQueue.setSignal(workerObject.idle::wake);
+		this.sendFileList.setSignal(workerObject.idle::wake);
 		Thread worker = new Thread(workerObject);
 		worker.start();
 
@@ -310,7 +352,7 @@ public class Ringo implements Runnable {
 			RingoPacket res = null;
 			try {
 				sendQueue.put(req);
-				res = this.takeType(this.recvQueue, PacketType.INIT_RES);
+				res = this.recvQueue.poll(PacketType.INIT_RES, 200, TimeUnit.MILLISECONDS);
 			} catch (InterruptedException e) {
 				// nah
 			}
@@ -325,16 +367,12 @@ public class Ringo implements Runnable {
 					this.indexRtt = res.getIndexRtt();
 				}
 			} else if (res != null) {
-				try {
-					recvQueue.put(res);
-				} catch (InterruptedException e) {
-					// Drop Packet
-				}
+				recvQueue.add(res);
 			}
 			// if not, drop the packet
 		}
 
-		flushType(recvQueue, PacketType.INIT_RES);
+		recvQueue.discard(PacketType.INIT_RES);
 		flushType(sendQueue, PacketType.INIT_REQ);
 
 		return skip;
@@ -360,25 +398,29 @@ public class Ringo implements Runnable {
 	 * packet from all N neighbors. This node simultaneously sends
 	 * LSA_COMPLETE packets to all its N-1 neighbors continuously.
 	 *
-	 * @param recvQueue - concurrency-safe queue that holds all packets received from the network buffer
+	 * The LSA table is versioned: every new entry bumps this Ringo's
+	 * table version. Each LSA or LSA_COMPLETE packet only carries the
+	 * entries the receiving peer hasn't acknowledged yet, along with an
+	 * ack of the peer's own table version. Peers that haven't acknowledged
+	 * anything yet get the full table.
+	 *
+	 * @param recvQueue - mailbox that holds all packets received from the network buffer
 	 * @param sendQueue - concurrency-safe queue that holds all packets waiting to be sent from the network buffer
 	 */
-	private void peerDiscovery(LinkedBlockingQueue<RingoPacket> recvQueue, LinkedBlockingQueue<RingoPacket> sendQueue) {
+	private void peerDiscovery(PacketMailbox recvQueue, LinkedBlockingQueue<RingoPacket> sendQueue) {
 		Hashtable<String, Boolean> converged = new Hashtable<String, Boolean>();
-		this.lsa.put(this.localName+":"+this.localPort, 1);
+		addLsaEntry(this.self.getKey());
 		if (this.lsa.size() < ringSize) {
-			converged.put(this.localName+":"+this.localPort, false);
+			converged.put(this.self.getKey(), false);
 		} else {
-			converged.put(this.localName+":"+this.localPort, true);
+			converged.put(this.self.getKey(), true);
 		}
 
 		if (this.pocName != null) {
-			this.lsa.put(this.pocName+":"+this.pocPort, 1);
+			addLsaEntry(this.pocName+":"+this.pocPort);
 			converged.put(this.pocName+":"+this.pocPort, false);
 
-			RingoPacket packet = new RingoPacket(this.localName, this.localPort, this.pocName, this.pocPort, 0, 0, PacketType.LSA, this.role, this.ringSize);
-			packet.setLsa(this.lsa);
-			sendQueue.add(packet);
+			sendQueue.add(createLsaPacket(this.pocName+":"+this.pocPort, PacketType.LSA));
 		}
 
 		// System.out.println("bee");
@@ -387,16 +429,16 @@ public class Ringo implements Runnable {
 			// System.out.println("sendqueue: " +this.sendQueue);
 			// listen for responses from all nodes
 			// and respond with corresponding LSA vectors
-			if (!converged.get(this.localName+":"+this.localPort)) {
+			if (!converged.get(this.self.getKey())) {
 				try {
 					RingoPacket request = recvQueue.take();
-					this.lsa.putAll(request.getLsa());
+					mergeLsa(request);
 
 					if (request.getType() != PacketType.LSA_COMPLETE) {
-						if (!converged.containsKey(request.getSourceIP()+":"+request.getSourcePort()))
-							converged.put(request.getSourceIP()+":"+request.getSourcePort(), false);
+						if (!converged.containsKey(sourceKey(request)))
+							converged.put(sourceKey(request), false);
 					} else {
-						converged.put(request.getSourceIP()+":"+request.getSourcePort(), true);
+						converged.put(sourceKey(request), true);
 					}
 
 					try {
@@ -410,10 +452,7 @@ public class Ringo implements Runnable {
 
 					while (iter.hasNext()) {
 						String key = (String) iter.next();
-						RingoPacket response = new RingoPacket(this.localName, this.localPort, key.substring(0, key.indexOf(":")), Integer.parseInt(key.substring(key.indexOf(":") + 1)), 0, 0, PacketType.LSA, this.role, this.ringSize);
-						response.setLsa(this.lsa);
-
-						sendQueue.add(response);
+						sendQueue.add(createLsaPacket(key, PacketType.LSA));
 					}
 
 				} catch (Exception e) {
@@ -422,12 +461,12 @@ public class Ringo implements Runnable {
 			} else {
 				try {
 					RingoPacket request = recvQueue.take();
-					this.lsa.putAll(request.getLsa());
+					mergeLsa(request);
 
 					if (request.getType() != PacketType.LSA_COMPLETE) {
-						converged.put(request.getSourceIP()+":"+request.getSourcePort(), false);
+						converged.put(sourceKey(request), false);
 					} else {
-						converged.put(request.getSourceIP()+":"+request.getSourcePort(), true);
+						converged.put(sourceKey(request), true);
 					}
 
 					try {
@@ -442,11 +481,8 @@ public class Ringo implements Runnable {
 
 					while (iter.hasNext()) {
 						String key = (String) iter.next();
-						if (!key.equals(this.localName+":"+this.localPort)) {
-							RingoPacket packet = new RingoPacket(this.localName, this.localPort, key.substring(0, key.indexOf(":")), Integer.parseInt(key.substring(key.indexOf(":") + 1)), 0, 0, PacketType.LSA_COMPLETE, this.role, this.ringSize);
-							packet.setLsa(this.lsa);
-
-							sendQueue.add(packet);
+						if (!key.equals(this.self.getKey())) {
+							sendQueue.add(createLsaPacket(key, PacketType.LSA_COMPLETE));
 						}
 					}
 				} catch (Exception e) {
@@ -460,14 +496,79 @@ public class Ringo implements Runnable {
 
 			while (iter.hasNext()) {
 				String key = (String) iter.next();
-
-				RingoPacket packet = new RingoPacket(this.localName, this.localPort, key.substring(0, key.indexOf(":")), Integer.parseInt(key.substring(key.indexOf(":") + 1)), 0, 0, PacketType.LSA_COMPLETE, this.role, this.ringSize);
-				packet.setLsa(this.lsa);
-				sendQueue.add(packet);
+				sendQueue.add(createLsaPacket(key, PacketType.LSA_COMPLETE));
 			}
 		}
 	}
 
+	/**
+	 * Adds a Ringo to the LSA table. A Ringo that wasn't known yet
+	 * bumps the table version.
+	 *
+	 * @param key - "hostname:port" of the Ringo
+	 */
+	private void addLsaEntry(String key) {
+		if (!this.lsa.containsKey(key)) {
+			this.lsa.put(key, 1);
+			this.lsaLog.add(key);
+		}
+	}
+
+	/**
+	 * Merges the LSA entries of a received packet into this Ringo's table,
+	 * and updates the version bookkeeping for the packet's source.
+	 *
+	 * The entries are always merged, since the table only ever grows. The
+	 * source's version is only advanced when the packet starts at or below
+	 * the version already heard, so an ack never covers a missed update.
+	 *
+	 * @param packet - packet received during peer discovery
+	 */
+	private void mergeLsa(RingoPacket packet) {
+		if (packet.getLsa() == null) {
+			return;
+		}
+
+		String source = sourceKey(packet);
+		for (String key : packet.getLsa().keySet()) {
+			addLsaEntry(key);
+		}
+
+		int heard = this.lsaHeard.getOrDefault(source, 0);
+		if (packet.getLsaBase() <= heard && packet.getLsaVersion() > heard) {
+			this.lsaHeard.put(source, packet.getLsaVersion());
+		}
+
+		// a peer sending its full table may have restarted, so trust its ack as-is
+		int acked = this.lsaAcked.getOrDefault(source, 0);
+		if (packet.getLsaBase() == 0 || packet.getLsaAck() > acked) {
+			this.lsaAcked.put(source, Math.min(packet.getLsaAck(), this.lsaLog.size()));
+		}
+	}
+
+	/**
+	 * Creates an LSA or LSA_COMPLETE packet carrying the entries of this
+	 * Ringo's table that the destination hasn't acknowledged yet.
+	 *
+	 * @param key - "hostname:port" of the destination Ringo
+	 * @param type - LSA or LSA_COMPLETE
+	 * @return packet ready to be sent
+	 */
+	private RingoPacket createLsaPacket(String key, PacketType type) {
+		RingoPacket packet = packetTo(key, type);
+		int acked = this.lsaAcked.getOrDefault(key, 0);
+		int version = this.lsaLog.size();
+
+		Hashtable<String, Integer> delta = new Hashtable<String, Integer>();
+		for (int i = acked; i < version; i++) {
+			delta.put(this.lsaLog.get(i), 1);
+		}
+
+		packet.setLsa(delta);
+		packet.setLsaVersions(acked, version, this.lsaHeard.getOrDefault(key, 0));
+		return packet;
+	}
+
 	/**
 	 * Helper function for consensus phase of peer discovery. Compares
 	 * the elements of the parameter "converged" with this node's LSA
@@ -480,7 +581,7 @@ public class Ringo implements Runnable {
 	 */
 	private boolean isLsaConverged(Hashtable<String, Boolean> converged) {
 		if (this.lsa.size() >= ringSize) {
-			converged.put(this.localName+":"+this.localPort, true);
+			converged.put(this.self.getKey(), true);
 		} else {
 			return false;
 		}
@@ -493,7 +594,7 @@ public class Ringo implements Runnable {
 			// if it hasn't converged
 			// then we return false
 			if (converged.containsKey(key)) {
-				if (!key.equals(this.localName+":"+this.localPort) && !converged.get(key)) {
+				if (!key.equals(this.self.getKey()) && !converged.get(key)) {
 					return false;
 				}
 			} else {
@@ -517,12 +618,12 @@ public class Ringo implements Runnable {
 	 * performed in the same way as peer discovery, utilizing
 	 * PING_COMPLETE packets to communicate completion.
 	 *
-	 * @param recvQueue - concurrency-safe queue that holds all packets received from the network buffer
+	 * @param recvQueue - mailbox that holds all packets received from the network buffer
 	 * @param sendQueue - concurrency-safe queue that holds all packets waiting to be sent from the network buffer
 	 */
-	private void rttVectorGeneration(LinkedBlockingQueue<RingoPacket> recvQueue, LinkedBlockingQueue<RingoPacket> sendQueue) {
+	private void rttVectorGeneration(PacketMailbox recvQueue, LinkedBlockingQueue<RingoPacket> sendQueue) {
 		HashSet<String> converged = new HashSet<String>();
-		String localkey = this.localName+":"+this.localPort;
+		String localkey = this.self.getKey();
 
 		int n = 0;
 		this.rttIndex.put(localkey, n);
@@ -539,13 +640,13 @@ public class Ringo implements Runnable {
 			while (iter.hasNext()) {
 				String key = (String) iter.next();
 				if (!this.rttIndex.containsKey(key) && !key.equals(localkey)) {
-					RingoPacket requestOut = new RingoPacket(this.localName, this.localPort, key.substring(0, key.indexOf(":")), Integer.parseInt(key.substring(key.indexOf(":") + 1)), 0, 0, PacketType.PING_REQ, this.role, this.ringSize);
+					RingoPacket requestOut = packetTo(key, PacketType.PING_REQ);
 					sendQueue.add(requestOut);
 
 					RingoPacket responseIn = null;
-					responseIn = takeType(recvQueue, PacketType.PING_RES);
+					responseIn = recvQueue.take(PacketType.PING_RES);
 
-					if (responseIn != null && !this.rttIndex.containsKey(responseIn.getSourceIP()+":"+responseIn.getSourcePort())) {
+					if (responseIn != null && !this.rttIndex.containsKey(sourceKey(responseIn))) {
 						assignRtt(responseIn, n, responseIn.getStopTime() - responseIn.getStartTime());
 						n++;
 					}
@@ -566,14 +667,14 @@ public class Ringo implements Runnable {
 
 			while (iter.hasNext()) {
 				String key = (String) iter.next();
-				RingoPacket request = new RingoPacket(this.localName, this.localPort, key.substring(0, key.indexOf(":")), Integer.parseInt(key.substring(key.indexOf(":") + 1)), 0, 0, PacketType.PING_COMPLETE, this.role, this.ringSize);
+				RingoPacket request = packetTo(key, PacketType.PING_COMPLETE);
 				sendQueue.add(request);
 
 				if (!key.equals(localkey) && !converged.contains(key)) {
 					RingoPacket response = null;
-					response = takeType(recvQueue, PacketType.PING_COMPLETE);
-					if (response != null && !converged.contains(response.getSourceIP()+":"+response.getSourcePort())) {
-						converged.add(response.getSourceIP()+":"+response.getSourcePort());
+					response = recvQueue.take(PacketType.PING_COMPLETE);
+					if (response != null && !converged.contains(sourceKey(response))) {
+						converged.add(sourceKey(response));
 					}
 				}
 
@@ -591,7 +692,7 @@ public class Ringo implements Runnable {
 
 			while (iter.hasNext()) {
 				String key = (String) iter.next();
-				RingoPacket request = new RingoPacket(this.localName, this.localPort, key.substring(0, key.indexOf(":")), Integer.parseInt(key.substring(key.indexOf(":") + 1)), 0, 0, PacketType.PING_COMPLETE, this.role, this.ringSize);
+				RingoPacket request = packetTo(key, PacketType.PING_COMPLETE);
 				sendQueue.add(request);
 			}
 			try {
@@ -635,14 +736,13 @@ public class Ringo implements Runnable {
 	 */
 	private void assignRtt(RingoPacket packet, int index, long rtt) {
 		try {
-			InetAddress src = InetAddress.getLocalHost();
-			String localkey = src.getHostAddress()+":"+this.localPort;
+			String localkey = this.self.getKey();
 
-			this.rttIndex.put(packet.getSourceIP()+":"+packet.getSourcePort(), index);
-			this.indexRtt.put(index, packet.getSourceIP()+":"+packet.getSourcePort());
+			this.rttIndex.put(sourceKey(packet), index);
+			this.indexRtt.put(index, sourceKey(packet));
 
-			//this.rtt[rttIndex.get(packet.getSourceIP()+":"+packet.getSourcePort())][rttIndex.get(localkey)] = rtt;
-			this.rtt[rttIndex.get(localkey)][rttIndex.get(packet.getSourceIP()+":"+packet.getSourcePort())] = rtt;
+			//this.rtt[rttIndex.get(sourceKey(packet))][rttIndex.get(localkey)] = rtt;
+			this.rtt[rttIndex.get(localkey)][rttIndex.get(sourceKey(packet))] = rtt;
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -662,15 +762,15 @@ public class Ringo implements Runnable {
 	 * is effectively reached when we receive a unique RTT_COMPLETE packet
 	 * from all N-1 peers.
 	 *
-	 * @param recvQueue - concurrency-safe queue that holds all packets received from the network buffer
+	 * @param recvQueue - mailbox that holds all packets received from the network buffer
 	 * @param sendQueue - concurrency-safe queue that holds all packets waiting to be sent from the network buffer
 	 */
-	private void rttConvergence(LinkedBlockingQueue<RingoPacket> recvQueue, LinkedBlockingQueue<RingoPacket> sendQueue) {
+	private void rttConvergence(PacketMailbox recvQueue, LinkedBlockingQueue<RingoPacket> sendQueue) {
 		HashSet<String> converged = new HashSet<String>();
-		String localkey = this.localName+":"+this.localPort;
+		String localkey = this.self.getKey();
 
 		HashSet<String> addedToMatrix = new HashSet<String>();
-		addedToMatrix.add(this.localName+":"+this.localPort);
+		addedToMatrix.add(this.self.getKey());
 
 		while (!isRttConverged()) {
 			Iterator iter = this.lsa.keySet().iterator();
@@ -678,18 +778,18 @@ public class Ringo implements Runnable {
 			while (iter.hasNext()) {
 				String key = (String) iter.next();
 
-				if (!key.equals(this.localName+":"+this.localPort) && !addedToMatrix.contains(key)) {
-					RingoPacket requestOut = new RingoPacket(Ringo.this.localName, Ringo.this.localPort, key.substring(0, key.indexOf(":")), Integer.parseInt(key.substring(key.indexOf(":") + 1)), 0, 0, PacketType.RTT_REQ, Ringo.this.role, this.ringSize);
+				if (!key.equals(this.self.getKey()) && !addedToMatrix.contains(key)) {
+					RingoPacket requestOut = packetTo(key, PacketType.RTT_REQ);
 					sendQueue.add(requestOut);
 
 					//System.out.println("rtt index: " +this.rttIndex);
 
 					RingoPacket responseIn = null;
-					responseIn = takeType(recvQueue, PacketType.RTT_RES);
+					responseIn = recvQueue.take(PacketType.RTT_RES);
 
-					if (responseIn != null && !addedToMatrix.contains(responseIn.getSourceIP()+":"+responseIn.getSourcePort())) {
+					if (responseIn != null && !addedToMatrix.contains(sourceKey(responseIn))) {
 						addRttVectorToMatrix(responseIn);
-						addedToMatrix.add(responseIn.getSourceIP()+":"+responseIn.getSourcePort());
+						addedToMatrix.add(sourceKey(responseIn));
 					}
 				}
 
@@ -708,14 +808,14 @@ public class Ringo implements Runnable {
 
 			while (iter.hasNext()) {
 				String key = (String) iter.next();
-				RingoPacket request = new RingoPacket(this.localName, this.localPort, key.substring(0, key.indexOf(":")), Integer.parseInt(key.substring(key.indexOf(":") + 1)), 0, 0, PacketType.RTT_COMPLETE, this.role, this.ringSize);
+				RingoPacket request = packetTo(key, PacketType.RTT_COMPLETE);
 				sendQueue.add(request);
 
 				if (!key.equals(localkey) && !converged.contains(key)) {
 					RingoPacket response = null;
-					response = takeType(recvQueue, PacketType.RTT_COMPLETE);
-					if (response != null && !converged.contains(response.getSourceIP()+":"+response.getSourcePort())) {
-						converged.add(response.getSourceIP()+":"+response.getSourcePort());
+					response = recvQueue.take(PacketType.RTT_COMPLETE);
+					if (response != null && !converged.contains(sourceKey(response))) {
+						converged.add(sourceKey(response));
 					}
 				}
 
@@ -733,14 +833,14 @@ public class Ringo implements Runnable {
 
 			while (iter.hasNext()) {
 				String key = (String) iter.next();
-				RingoPacket request = new RingoPacket(this.localName, this.localPort, key.substring(0, key.indexOf(":")), Integer.parseInt(key.substring(key.indexOf(":") + 1)), 0, 0, PacketType.RTT_COMPLETE, this.role, this.ringSize);
+				RingoPacket request = packetTo(key, PacketType.RTT_COMPLETE);
 				sendQueue.add(request);
 
 				if (!key.equals(localkey) && !converged.contains(key)) {
 					RingoPacket response = null;
-					response = takeType(recvQueue, PacketType.RTT_COMPLETE);
-					if (response != null && !converged.contains(response.getSourceIP()+":"+response.getSourcePort())) {
-						converged.add(response.getSourceIP()+":"+response.getSourcePort());
+					response = recvQueue.take(PacketType.RTT_COMPLETE);
+					if (response != null && !converged.contains(sourceKey(response))) {
+						converged.add(sourceKey(response));
 					}
 				}
 
@@ -785,7 +885,7 @@ public class Ringo implements Runnable {
 	 * @param packet - packet from which we are writing into our RTT matrix
 	 */
 	private void addRttVectorToMatrix(RingoPacket packet) {
-		String packetKey = packet.getSourceIP()+":"+packet.getSourcePort();
+		String packetKey = sourceKey(packet);
 		long [][] packetRtt = packet.getRtt();
 		//System.out.println(packetRtt);
 
@@ -802,139 +902,58 @@ public class Ringo implements Runnable {
 	}
 
 	/**
-	 * Used to flush the "queue" parameter of all packets of a specific
-	 * type. Helpful when queue is clogged after any network initialization
-	 * phase, such as peer discovery.
-	 *
-	 * @param queue - concurrency-safe queue that holds all packets for sending or receiving
-	 * @param type - type of packet to flush from this queue
+	 * Creates a bootstrap packet from this Ringo to another one
+	 * @param key - "hostname:port" of the destination Ringo
+	 * @param type - type of the packet
+	 * @return packet ready to be sent
 	 */
-	private void flushType(LinkedBlockingQueue<RingoPacket> queue, PacketType type) {
-		Iterator iter = queue.iterator();
-
-		while (iter.hasNext()) {
-			RingoPacket packet = (RingoPacket) iter.next();
-			if (packet.getType() == type) {
-				iter.remove();
-			}
-		}
+	private RingoPacket packetTo(String key, PacketType type) {
+		PeerRegistry.Peer peer = this.peers.intern(key);
+		return new RingoPacket(this.localName, this.localPort, peer.getHost(), peer.getPort(), 0, 0, type, this.role);
 	}
 
 	/**
-	 * Remove all packets of a specific type, and from a specific Ringo
-	 * @param queue Queue to search
-	 * @param type Type of packet to remove
-	 * @param hostname Hostname of Ringo
-	 * @param port Port of Ringo
+	 * @param packet - received packet
+	 * @return interned "hostname:port" of the Ringo that sent the packet
 	 */
-	private void flushSpecific(LinkedBlockingQueue<RingoPacket> queue, PacketType type, String hostname, int port) {
-
-		Iterator iter = queue.iterator();
-
-		while (iter.hasNext()) {
-			RingoPacket packet = (RingoPacket) iter.next();
-			if (packet.getType() == type && packet.getSourceIP().equals(hostname) && packet.getSourcePort() == port) {
-				iter.remove();
-			}
-		}
+	private String sourceKey(RingoPacket packet) {
+		return this.peers.intern(packet.getSourceIP(), packet.getSourcePort()).getKey();
 	}
 
 	/**
-	 * Since the "queue" parameter contains many different types of packets,
-	 * it can be inconvenient when trying to access packets of a specific type
-	 * due to the FIFO nature of this data structure. We can bypass this
-	 * characteristic of our queue by providing the type we are looking for.
-	 * Returns the first packet of PacketType type in the queue.
+	 * Used to flush the "queue" parameter of all packets of a specific
+	 * type. Helpful when queue is clogged after any network initialization
+	 * phase, such as peer discovery.
 	 *
 	 * @param queue - concurrency-safe queue that holds all packets for sending or receiving
-	 * @param type - type of packet to take from this queue
-	 * @return RingoPacket if found, null otherwise
+	 * @param type - type of packet to flush from this queue
 	 */
-	private RingoPacket takeType(LinkedBlockingQueue<RingoPacket> queue, PacketType type) {
+	private void flushType(LinkedBlockingQueue<RingoPacket> queue, PacketType type) {
 		Iterator iter = queue.iterator();
 
 		while (iter.hasNext()) {
 			RingoPacket packet = (RingoPacket) iter.next();
 			if (packet.getType() == type) {
 				iter.remove();
-				return packet;
 			}
 		}
-
-		return null;
 	}
 
 	/**
-	 * Since the "queue" parameter contains many different types of packets,
-	 * it can be inconvenient when trying to access a specific packet
-	 * due to the FIFO nature of this data structure. We can bypass this
-	 * characteristic of our queue by providing basic information of what
-	 * we are looking for.
-	 *
-	 * Returns the first packet matching all parameters in this queue.
-	 *
-	 * @param queue - concurrency-safe queue that holds all packets for sending or receiving
-	 * @param type - type of packet to take from this queue
-	 * @param hostname - source hostname of the packet to take from this queue
-	 * @param port - source port of the packet to take from this queue
-	 * @return RingoPacket if found, null otherwise
+	 * Remove all packets of a specific type that belong to one transfer
+	 * @param queue Queue to search
+	 * @param type Type of packet to remove
+	 * @param transferId Id of the transfer
 	 */
-	private RingoPacket takeSpecific(LinkedBlockingQueue<RingoPacket> queue, PacketType type, String hostname, int port) {
-		Iterator iter = queue.iterator();
-		int maxAck = -1;
-
-		while (iter.hasNext()) {
-			RingoPacket packet = (RingoPacket) iter.next();
-			if (packet.getType() == type && packet.getSourceIP().equals(hostname) && packet.getSourcePort() == port) {
-				if (packet.getType() == PacketType.DATA_ACK && maxAck < packet.getSequenceNumber()) {
-					maxAck = packet.getSequenceNumber();
-				} else {
-					iter.remove();
-					/*if (packet.getType() == PacketType.DATA) {
-						System.out.println("data packet: " +packet.getSequenceNumber());
-					}*/
-					return packet;
-				}
-			}
-		}
-
-		if (type == PacketType.DATA_ACK) {
-			iter = queue.iterator();
-
-			while (iter.hasNext()) {
-				RingoPacket packet = (RingoPacket) iter.next();
-
-				if (packet.getType() == type && packet.getSourceIP().equals(hostname) && packet.getSourcePort() == port) {
-					if (packet.getType() == PacketType.DATA_ACK && maxAck == packet.getSequenceNumber()) {
-						iter.remove();
-						/*if (packet.getType() == PacketType.DATA) {
-							System.out.println("data packet: " +packet.getSequenceNumber());
-						}*/
-						return packet;
-					}
-				}
-			}
-		}
-
-		return null;
-	}
-
-	private RingoPacket takeNextDataPacket(LinkedBlockingQueue<RingoPacket> queue, String hostname, int port, int seqNum) {
+	private void flushTransfer(LinkedBlockingQueue<RingoPacket> queue, PacketType type, long transferId) {
 		Iterator iter = queue.iterator();
-		int maxAck = -1;
 
 		while (iter.hasNext()) {
 			RingoPacket packet = (RingoPacket) iter.next();
-			if (packet.getType() == PacketType.DATA && packet.getSourceIP().equals(hostname) && packet.getSourcePort() == port && packet.getSequenceNumber() > seqNum) {
+			if (packet.getType() == type && packet.getTransferId() == transferId) {
 				iter.remove();
-				/*if (packet.getType() == PacketType.DATA) {
-					System.out.println("data packet: " +packet.getSequenceNumber());
-				}*/
-				return packet;
 			}
 		}
-
-		return null;
 	}
 
 	/**
@@ -1027,6 +1046,98 @@ public class Ringo implements Runnable {
 
 	}
 
+	/**
+	 * Converts DataGram packet to RingoPacket, and
+	 * enqueues it accordingly.
+	 *
+	 * If the packet has something to do with respect to bootstrapping,
+	 * then this will put the RTT, and LSA data structures directly into the Ringo.
+	 *
+	 * If the packet pertains to KeepAlive, the packet is enqueued into the KeepAlive queue.
+	 * Otherwise, it is placed into the normal receiveQueue
+	 *
+	 * Packets are decoded into recycled packets from the factory. Requests that
+	 * are answered right here are released again straight away, and KEEPALIVE
+	 * packets are released by KeepAlive. Anything handed to the receiveQueue
+	 * leaves the pool for good, since its consumers keep references to it.
+	 *
+	 * A datagram may hold several packets back to back (see PacketCoalescer),
+	 * they are decoded and enqueued one after the other.
+	 *
+	 * Shared by the receiving side of every transport.
+	 * @param datagram raw Data from Socket, between position and limit
+	 * @return true if a packet holds on to its region of datagram (a payload view)
+	 */
+	private boolean deserializeAndEnqueue(ByteBuffer datagram) {
+		boolean retained = false;
+		try {
+			while (datagram.hasRemaining()) {
+				RingoPacket packet = RingoPacketCodec.decode(datagram, this.factory.acquire(), this.peers);
+				retained |= packet.getPayload() != null;
+				enqueue(packet);
+			}
+		} catch (Exception e) {
+			// stream corruption etc
+		}
+		return retained;
+	}
+
+	/**
+	 * Answers or enqueues a single received packet
+	 * @param packet Packet decoded from a datagram
+	 */
+	private void enqueue(RingoPacket packet) {
+		packet.setStopTime(System.currentTimeMillis());
+
+		if (packet != null) {
+			if (packet.getType() == PacketType.PING_REQ) {
+				RingoPacket responseOut = this.factory.makeTemplated(packet.getSourceIP(), packet.getSourcePort(), 0, 0, PacketType.PING_RES);
+				responseOut.setStartTime(packet.getStartTime()); // to generate RTT we have to use other packet's start time
+				//System.out.println("this is the response I'm returning back boys " +responseOut);
+				this.sendQueue.add(responseOut);
+				this.factory.release(packet);
+			} else if (packet.getType() == PacketType.RTT_REQ){
+				RingoPacket responseOut = this.factory.makeTemplated(packet.getSourceIP(), packet.getSourcePort(), 0, 0, PacketType.RTT_RES);
+				responseOut.setRtt(this.rtt);
+				responseOut.setRttIndex(this.rttIndex);
+				responseOut.setIndexRtt(this.indexRtt);
+				this.sendQueue.add(responseOut);
+				this.factory.release(packet);
+			} else if (packet.getType() == PacketType.DATA) {
+				// System.out.println("Received DATA packet sequence number: " +packet.getSequenceNumber());
+				packet.setRecyclable(false);
+				this.recvQueue.add(packet);
+			} else if (packet.getType() == PacketType.DATA_ACK) {
+				// System.out.println("Received DATA_ACK packet sequence number: " +packet.getSequenceNumber());
+				packet.setRecyclable(false);
+				this.recvQueue.add(packet);
+		  } else if (packet.getType() == PacketType.KEEPALIVE) {
+		  	this.keepAliveQueue.add(packet);
+		  } else if (packet.getType() == PacketType.INIT_REQ) {
+		  	RingoPacket res = this.factory.makeTemplated(packet.getSourceIP(), packet.getSourcePort(), 0, 0, PacketType.INIT_RES);
+		  	if (this.initialized) {
+		  		res.setIndexRtt(this.indexRtt);
+		  		res.setRttIndex(this.rttIndex);
+		  		res.setRtt(this.rtt);
+		  		res.setLsa(this.lsa);
+		  		res.setInitSkip(true);
+		  	} else {
+		  		res.setInitSkip(false);
+		  	}
+
+		  	try {
+		  		sendQueue.put(res);
+		  	} catch (InterruptedException e) {
+		  		e.printStackTrace();
+		  	}
+		  	this.factory.release(packet);
+		  } else {
+		  	packet.setRecyclable(false);
+		  	this.recvQueue.add(packet);
+		  }
+		}
+	}
+
 	/**
 	 * This Thread handles all inbound network functions.
 	 * Puts all received and serialized packets into parent class
@@ -1036,13 +1147,31 @@ public class Ringo implements Runnable {
 	 * @author andrewray
 	 */
 	private class ReceiverThread implements Runnable {
-		LinkedBlockingQueue<RingoPacket> packetQueue;
+		public static final int SLAB_SIZE = 1 << 20;
+
+		PacketMailbox packetQueue;
 		LinkedBlockingQueue<RingoPacket> keepAliveQueue;
+		private DatagramPacket datagram;
+		private byte[] slab;
+		private ByteBuffer view;
+		private int slabOffset;
 
-		private ReceiverThread(LinkedBlockingQueue<RingoPacket> dataQueue,
+		/**
+		 * Datagrams are received into a large slab. Packets without a payload
+		 * are fully decoded before the next receive, so their region of the slab
+		 * is simply reused. A DATA payload stays a view into the slab, so its
+		 * region is kept and the next datagram lands right after it. Once a slab
+		 * can't fit another datagram a new one is started; the old one is freed
+		 * when the last payload pointing into it is.
+		 */
+		private ReceiverThread(PacketMailbox dataQueue,
 				LinkedBlockingQueue<RingoPacket> keepAliveQueue) {
 			this.packetQueue = dataQueue;
 			this.keepAliveQueue = keepAliveQueue;
+			this.datagram = new DatagramPacket(new byte[0], 0);
+			this.slab = new byte[SLAB_SIZE];
+			this.view = ByteBuffer.wrap(this.slab);
+			this.slabOffset = 0;
 		}
 
 		public void run() {
@@ -1051,8 +1180,12 @@ public class Ringo implements Runnable {
 				// receiving datagram packets
 				try {
 					DatagramPacket UDPpacket = receive();
-					String sentence = new String(UDPpacket.getData());
-					deserializeAndEnqueue(UDPpacket.getData());
+					// one view per slab, pointed at each datagram in turn
+					this.view.limit(UDPpacket.getOffset() + UDPpacket.getLength());
+					this.view.position(UDPpacket.getOffset());
+					if (Ringo.this.deserializeAndEnqueue(this.view)) {
+						this.slabOffset += UDPpacket.getLength();
+					}
 				} catch (IOException e) {
 					// handle later
 				}
@@ -1060,106 +1193,20 @@ public class Ringo implements Runnable {
 		}
 
 		/**
-		 * Fetch raw data, and convert to a DatagramPacket.
+		 * Fetch raw data into the free end of the slab. The returned DatagramPacket
+		 * is reused by every call, and only valid until the next one.
 		 * @return DataGram packet fetched from the queue
 		 * @throws IOException called when you cannot read from socket.
 		 */
 		private DatagramPacket receive() throws IOException {
-			byte[] data = new byte[20000];
-			DatagramPacket packet = new DatagramPacket(data, data.length);
-			Ringo.this.socket.receive(packet);
-			return packet;
-		}
-
-		/**
-		 * Converts DataGram packet to RingoPacket, and
-		 * enqueues it accordingly.
-		 *
-		 * If the packet has something to do with respect to bootstrapping,
-		 * then this will put the RTT, and LSA data structures directly into the Ringo.
-		 *
-		 * If the packet pertains to KeepAlive, the packet is enqueued into the KeepAlive queue.
-		 * Otherwise, it is placed into the normal receiveQueue
-		 * @param data raw Data from Socket
-		 */
-		private void deserializeAndEnqueue(byte [] data) {
-			try {
-				RingoPacket packet = RingoPacket.deserialize(data);
-				packet.setStopTime(System.currentTimeMillis());
-
-				if (packet.getType() != PacketType.LSA) {
-					replaceDuplicates(packet);
-				}
-
-				if (packet != null) {
-					if (packet.getType() == PacketType.PING_REQ) {
-						RingoPacket responseOut = new RingoPacket(Ringo.this.localName, Ringo.this.localPort, packet.getSourceIP(), packet.getSourcePort(), 0, 0, PacketType.PING_RES, Ringo.this.role, Ringo.this.ringSize);
-						responseOut.setStartTime(packet.getStartTime()); // to generate RTT we have to use other packet's start time
-						//System.out.println("this is the response I'm returning back boys " +responseOut);
-						Ringo.this.sendQueue.add(responseOut);
-					} else if (packet.getType() == PacketType.RTT_REQ){
-						RingoPacket responseOut = new RingoPacket(Ringo.this.localName, Ringo.this.localPort, packet.getSourceIP(), packet.getSourcePort(), 0, 0, PacketType.RTT_RES, Ringo.this.role, Ringo.this.ringSize);
-						responseOut.setRtt(Ringo.this.rtt);
-						responseOut.setRttIndex(Ringo.this.rttIndex);
-						responseOut.setIndexRtt(Ringo.this.indexRtt);
-						Ringo.this.sendQueue.add(responseOut);
-					} else if (packet.getType() == PacketType.DATA) {
-						// System.out.println("Received DATA packet sequence number: " +packet.getSequenceNumber());
-						this.packetQueue.add(packet);
-					} else if (packet.getType() == PacketType.DATA_ACK) {
-						// System.out.println("Received DATA_ACK packet sequence number: " +packet.getSequenceNumber());
-						this.packetQueue.add(packet);
-				  } else if (packet.getType() == PacketType.KEEPALIVE) {
-				  	this.keepAliveQueue.add(packet);
-				  } else if (packet.getType() == PacketType.INIT_REQ) {
-				  	RingoPacket res = new RingoPacket(Ringo.this.localName, Ringo.this.localPort, packet.getSourceIP(), packet.getSourcePort(), 0, 0, PacketType.INIT_RES, Ringo.this.role, Ringo.this.ringSize);
-				  	if (Ringo.this.initialized) {
-				  		res.setIndexRtt(Ringo.this.indexRtt);
-				  		res.setRttIndex(Ringo.this.rttIndex);
-				  		res.setRtt(Ringo.this.rtt);
-				  		res.setLsa(Ringo.this.lsa);
-				  		res.setInitSkip(true);
-				  	} else {
-				  		res.setInitSkip(false);
-				  	}
-
-				  	try {
-				  		sendQueue.put(res);
-				  	} catch (InterruptedException e) {
-				  		e.printStackTrace();
-				  	}
-				  } else {
-				  	this.packetQueue.add(packet);
-				  }
-				}
-			} catch (Exception e) {
-				// stream corruption etc
-			}
-		}
-
-		/**
-		 * Remove all packets that are equal to the parameter packet
-		 * @param packet Packet to compare against
-		 */
-		private void replaceDuplicates(RingoPacket packet) {
-			Iterator iter = this.packetQueue.iterator();
-
-			while (iter.hasNext()) {
-				RingoPacket entry = (RingoPacket) iter.next();
-
-				if (entry.equals(packet)) {
-					entry.replace(packet);
-					break;
-				}
-			}
-
-			while (iter.hasNext()) {
-				RingoPacket entry = (RingoPacket) iter.next();
-
-				if (entry.equals(packet)) {
-					iter.remove();
-				}
+			if (this.slab.length - this.slabOffset < RingoPacketCodec.MAX_DATAGRAM_SIZE) {
+				this.slab = new byte[SLAB_SIZE];
+				this.view = ByteBuffer.wrap(this.slab);
+				this.slabOffset = 0;
 			}
+			this.datagram.setData(this.slab, this.slabOffset, RingoPacketCodec.MAX_DATAGRAM_SIZE);
+			Ringo.this.socket.receive(this.datagram);
+			return this.datagram;
 		}
 	}
 
@@ -1168,14 +1215,34 @@ public class Ringo implements Runnable {
 	 * Puts all received and serialized packets into parent class
 	 * field "recvQueue", a multithreaded data structure.
 	 *
+	 * Queued packets are drained in batches of up to BATCH_SIZE, and control
+	 * packets in a batch that go to the same Ringo share one datagram
+	 * (see PacketCoalescer), so bootstrap bursts cost a few syscalls instead
+	 * of one per packet.
+	 *
+	 * While the queue is empty the thread idles with the configured
+	 * IdleStrategy, which the queue wakes when a packet is added.
+	 *
 	 * @author sainaidu
 	 * @author andrewray
 	 */
 	private class SenderThread implements Runnable {
-		LinkedBlockingQueue<RingoPacket> packetQueue;
+		/** Most packets drained from the queue into one batch */
+		public static final int BATCH_SIZE = 64;
+
+		SignallingQueue<RingoPacket> packetQueue;
+		private ArrayList<RingoPacket> batch;
+		private PacketCoalescer coalescer;
+		private DatagramPacket datagram;
+		private IdleStrategy idle;
 
-		private SenderThread(LinkedBlockingQueue<RingoPacket> packetQueue) {
+		private SenderThread(SignallingQueue<RingoPacket> packetQueue) {
 			this.packetQueue = packetQueue;
+			this.idle = Ringo.this.config.newIdleStrategy();
+			this.packetQueue.setSignal(this.idle::wake);
+			this.batch = new ArrayList<RingoPacket>(BATCH_SIZE);
+			this.coalescer = new PacketCoalescer(false);
+			this.datagram = new DatagramPacket(new byte[0], 0);
 		}
 
 		public void run() {
@@ -1191,65 +1258,57 @@ public class Ringo implements Runnable {
 				}
 				RingoPacket packet = dequeue();
 				if (packet != null) {
-					// System.out.println("current time start: " +System.currentTimeMillis());
-					if (packet.getType() == PacketType.DATA || packet.getType() == PacketType.DATA_ACK) {
-						// System.out.println("Sent DATA packet sequence number: " +packet.getSequenceNumber());
-					} else {
-						// replaceDuplicates(packet);
-					}
+					this.idle.reset();
+					this.batch.add(packet);
+					this.packetQueue.drainTo(this.batch, BATCH_SIZE - 1);
 
-					packet.setStartTime(System.currentTimeMillis());
-					byte [] data = RingoPacket.serialize(packet);
-					DatagramPacket udpPacket = createDatagram(data, packet);
-					if (udpPacket != null) {
+					for (int i = 0; i < this.batch.size(); i++) {
+						packet = this.batch.get(i);
+						packet.setStartTime(System.currentTimeMillis());
 						try {
-							Ringo.this.socket.send(udpPacket);
-						} catch (Exception e) {
+							InetSocketAddress target = Ringo.this.peers.intern(packet.getDestIP(), packet.getDestPort()).getAddress();
+							if (!target.isUnresolved()) {
+								this.coalescer.add(packet, target);
+							}
+						} catch (Exception e) { // if the packet doesn't fit into a datagram
 							// handle later
 						}
-					} else {
-
+						Ringo.this.factory.release(packet);
 					}
-				} else {
+					this.batch.clear();
 
+					this.coalescer.flush();
+					sendReady();
+				} else {
+					this.idle.idle();
 				}
 			}
 		}
 
 		/**
-		 * Convert the RingoPacket into something Java can put into the socket
-		 * @param data Payload of the packet
-		 * @param ringoPacket RingoPacket to send
-		 * @return DataGram packet to send down the network
+		 * Send every datagram the coalescer has ready
 		 */
-		private DatagramPacket createDatagram(byte [] data, RingoPacket ringoPacket) {
-			try {
-				InetAddress dst = InetAddress.getByName(ringoPacket.getDestIP());
-				int port = ringoPacket.getDestPort();
-				DatagramPacket udppacket = new DatagramPacket(data, data.length, dst, port);
-				return udppacket;
-			} catch(Exception e) { // if host is unknown
-				// handle later
-				return null;
+		private void sendReady() {
+			while (this.coalescer.hasReady()) {
+				InetSocketAddress target = this.coalescer.peekTarget();
+				ByteBuffer buffer = this.coalescer.poll();
+				try {
+					this.datagram.setData(buffer.array(), buffer.arrayOffset(), buffer.limit());
+					this.datagram.setSocketAddress(target);
+					Ringo.this.socket.send(this.datagram);
+				} catch (Exception e) {
+					// handle later
+				}
+				this.coalescer.recycle(buffer);
 			}
 		}
 
 		/**
 		 * Returns a RingoPacket from the packetQueue
-		 * @return
+		 * @return the next packet, or null if the queue is empty
 		 */
 		private RingoPacket dequeue() {
-			if (!this.packetQueue.isEmpty()) {
-				try {
-					RingoPacket packet = this.packetQueue.take();
-					return packet;
-				} catch (InterruptedException e) {
-					// handle this later
-					return null;
-				}
-			} else {
-				return null;
-			}
+			return this.packetQueue.poll();
 		}
 
 		private void replaceDuplicates(RingoPacket packet) {
@@ -1266,14 +1325,175 @@ public class Ringo implements Runnable {
 		}
 	}
 
+	/**
+	 * This Thread handles all network input and output when the NIO transport
+	 * is configured, in place of ReceiverThread and SenderThread.
+	 *
+	 * The socket's DatagramChannel is non-blocking and registered with a
+	 * Selector. The sendQueue wakes the Selector whenever a packet is queued,
+	 * so the thread sleeps until there is something to read or send.
+	 * Reads and writes alternate in batches of BATCH_SIZE.
+	 * Datagrams are received into direct slabs, the same way ReceiverThread
+	 * does with its heap slabs, and packets are coalesced into direct
+	 * datagrams the same way SenderThread does.
+	 */
+	private class SelectorThread implements Runnable {
+		/** Datagrams handled per direction before turning to the other one, so neither starves */
+		public static final int BATCH_SIZE = 64;
+
+		SignallingQueue<RingoPacket> packetQueue;
+		private DatagramChannel channel;
+		private Selector selector;
+		private SelectionKey key;
+		private ByteBuffer slab;
+		private ByteBuffer view;
+		private int slabOffset;
+		private PacketCoalescer coalescer;
+		private long offlineUntil;
+
+		private SelectorThread(SignallingQueue<RingoPacket> packetQueue, DatagramChannel channel) {
+			this.packetQueue = packetQueue;
+			this.channel = channel;
+			this.slab = ByteBuffer.allocateDirect(ReceiverThread.SLAB_SIZE);
+			this.view = this.slab.duplicate();
+			this.slabOffset = 0;
+			this.coalescer = new PacketCoalescer(true);
+			this.offlineUntil = 0;
+		}
+
+		public void run() {
+			try {
+				this.selector = Selector.open();
+				this.channel.configureBlocking(false);
+				this.key = this.channel.register(this.selector, SelectionKey.OP_READ);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+			this.packetQueue.setSignal(this.selector::wakeup);
+
+			while (true) {
+				try {
+					// pending datagrams wait for OP_WRITE, anything else queued goes out right away
+					if (this.coalescer.hasReady() || this.packetQueue.isEmpty()) {
+						this.selector.select();
+					} else {
+						this.selector.selectNow();
+					}
+					this.selector.selectedKeys().clear();
+					receiveAll();
+					sendAll();
+				} catch (IOException e) {
+					// handle later
+				}
+			}
+		}
+
+		/**
+		 * Decode and enqueue up to BATCH_SIZE datagrams waiting on the channel
+		 * @throws IOException called when you cannot read from socket.
+		 */
+		private void receiveAll() throws IOException {
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				if (this.slab.capacity() - this.slabOffset < RingoPacketCodec.MAX_DATAGRAM_SIZE) {
+					this.slab = ByteBuffer.allocateDirect(ReceiverThread.SLAB_SIZE);
+					this.view = this.slab.duplicate();
+					this.slabOffset = 0;
+				}
+				this.slab.limit(this.slabOffset + RingoPacketCodec.MAX_DATAGRAM_SIZE);
+				this.slab.position(this.slabOffset);
+				if (this.channel.receive(this.slab) == null) {
+					return;
+				}
+
+				// one view per slab, pointed at each datagram in turn
+				this.view.limit(this.slab.position());
+				this.view.position(this.slabOffset);
+				if (Ringo.this.deserializeAndEnqueue(this.view)) {
+					this.slabOffset = this.slab.position();
+				}
+			}
+		}
+
+		/**
+		 * Send up to BATCH_SIZE queued packets, coalesced into as few datagrams as
+		 * possible, stopping early if the socket's send buffer is full. In the latter
+		 * case the remaining datagrams are kept and the channel is watched for
+		 * OP_WRITE until they can go out.
+		 * @throws IOException called when you cannot write to socket.
+		 */
+		private void sendAll() throws IOException {
+			if (!sendReady()) {
+				return;
+			}
+
+			long now = System.currentTimeMillis();
+			if (Ringo.this.delay > 0) {
+				this.offlineUntil = now + Ringo.this.delay;
+				Ringo.this.delay = 0;
+			}
+			if (now < this.offlineUntil) {
+				this.packetQueue.clear();
+				return;
+			}
+
+			RingoPacket packet;
+			for (int i = 0; i < BATCH_SIZE && (packet = this.packetQueue.poll()) != null; i++) {
+				packet.setStartTime(System.currentTimeMillis());
+				try {
+					InetSocketAddress target = Ringo.this.peers.intern(packet.getDestIP(), packet.getDestPort()).getAddress();
+					if (!target.isUnresolved()) {
+						this.coalescer.add(packet, target);
+					}
+				} catch (Exception e) { // if the packet doesn't fit into a datagram
+					// handle later
+				}
+				Ringo.this.factory.release(packet);
+			}
+
+			this.coalescer.flush();
+			sendReady();
+		}
+
+		/**
+		 * Write the coalescer's ready datagrams to the channel
+		 * @return true if all of them went out, false if the send buffer filled up
+		 * @throws IOException called when you cannot write to socket.
+		 */
+		private boolean sendReady() throws IOException {
+			while (this.coalescer.hasReady()) {
+				if (this.channel.send(this.coalescer.peek(), this.coalescer.peekTarget()) == 0) {
+					this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return false;
+				}
+				this.coalescer.recycle(this.coalescer.poll());
+			}
+			this.key.interestOps(SelectionKey.OP_READ);
+			return true;
+		}
+	}
+
+	/**
+	 * Builds the DATA packet for a chunk of a transfer on demand, so a
+	 * streamed transfer never needs all of its chunks at once.
+	 */
+	private interface ChunkSource {
+		/**
+		 * @param seqNumber Sequence number of the chunk
+		 * @return DATA packet carrying the chunk
+		 * @throws IOException if the chunk can't be read
+		 */
+		RingoPacket chunk(int seqNumber) throws IOException;
+	}
+
 	/**
 	 * Executes a user-provided command, like send
 	 * @author sainaidu
 	 */
-	private class WorkerThread implements Runnable {
+	class WorkerThread implements Runnable {
 		private Role role;
 		private LinkedBlockingQueue<RingoPacket> sendQueue;
-		private LinkedBlockingQueue<RingoPacket> recvQueue;
+		private PacketMailbox recvQueue;
 		private ArrayList<String> route;
 		private String localName;
 		private int localPort;
@@ -1281,6 +1501,29 @@ public class Ringo implements Runnable {
 		private RingoPacket [] file;
 		private String fileName;
 		private RingTracker tracker;
+		private ChunkCompressor compressor;
+		private IdleStrategy idle;
+		private Runnable wake;
+		private long pacedWakeAt;
+		private HashMap<Long, TransferSession> sessions;
+		private HashMap<Long, Long> finished;
+		private HashMap<Long, MergedFile> merging;
+		private HashMap<Integer, CongestionController> controllers;
+
+		/** Ethernet MTU, assumed when no interface reports one */
+		private static final int DEFAULT_MTU = 1500;
+
+		/** Time the receiving side of a transfer waits for the next DATA packet at a time */
+		private static final long WINDOW_TIMEOUT_MILLIS = 500;
+
+		/** Timeouts in a row before a streamed transfer checks its next hop for churn */
+		private static final int MAX_TRIALS = 10;
+
+		/** How long chunks of a finished streamed transfer are still acked instead of starting it over */
+		private static final long FINISHED_LINGER_MILLIS = 10000;
+
+		/** Chunks a streamed transfer accepts between syncing its spool and progress to disk */
+		private static final int SYNC_CHUNKS = 1024;
 
 
 		private boolean [] accepted;
@@ -1289,7 +1532,7 @@ public class Ringo implements Runnable {
 		private LinkedBlockingQueue<String> sendFileList;
 		private LinkedBlockingQueue<String> outputQueue;
 
-		public WorkerThread(Role role, LinkedBlockingQueue<RingoPacket> sendQueue, LinkedBlockingQueue<RingoPacket> recvQueue, ArrayList<String> route, String localName, int localPort, LinkedBlockingQueue<String> sendFileList, LinkedBlockingQueue<String> outputQueue, RingTracker tracker) {
+		public WorkerThread(Role role, LinkedBlockingQueue<RingoPacket> sendQueue, PacketMailbox recvQueue, ArrayList<String> route, String localName, int localPort, LinkedBlockingQueue<String> sendFileList, LinkedBlockingQueue<String> outputQueue, RingTracker tracker) {
 			this.role = role;
 			this.sendQueue = sendQueue;
 			this.recvQueue = recvQueue;
@@ -1303,6 +1546,14 @@ public class Ringo implements Runnable {
 			this.outputQueue = outputQueue;
 			this.fileName = "";
 			this.tracker = tracker;
+			this.compressor = new ChunkCompressor();
+			this.idle = Ringo.this.config.newIdleStrategy();
+			this.sessions = new HashMap<Long, TransferSession>();
+			this.finished = new HashMap<Long, Long>();
+			this.merging = new HashMap<Long, MergedFile>();
+			this.controllers = new HashMap<Integer, CongestionController>();
+			this.wake = this.idle::wake;
+			this.pacedWakeAt = 0;
 		}
 
 		public void run() {
@@ -1310,25 +1561,46 @@ public class Ringo implements Runnable {
 			while (true) {
 				// System.out.println("I assume you've been reached");
 				// starts sending a file if this node is SENDER and this node has a file to send
-				if (this.role == Role.SENDER) {
-					// System.out.println("yo");
-					flushType(this.sendQueue, PacketType.DATA);
-					if (!this.sendFileList.isEmpty()) {
-						// System.out.println("2");
-						sendFile(this.sendFileList.poll());
+				// leftovers of a transfer are flushed once it is done, not on every pass,
+				// or the packet that wakes an idle loop would be flushed before it is read
+				boolean worked = false;
+				if (this.role == Role.SENDER && !this.sendFileList.isEmpty()) {
+					// System.out.println("2");
+					// a streamed file only starts a session, which runs alongside the others below
+					sendFile(this.sendFileList.poll());
+					if (!Ringo.this.config.isStream()) {
+						flushType(this.sendQueue, PacketType.DATA);
+						this.recvQueue.discard(PacketType.DATA_ACK);
+						this.recvQueue.discard(PacketType.DATA_NACK);
 					}
-					flushType(this.sendQueue, PacketType.DATA);
-					flushType(this.recvQueue, PacketType.DATA_ACK);
+					worked = true;
+				}
+
+				// hand streamed chunks to their sessions, and give every session a turn
+				try {
+					worked |= dispatchStreams();
+					worked |= advanceSessions();
+				} catch (Exception e) {
+					e.printStackTrace();
 				}
 
 				// transfer packets from receive queue to send queue
 				try {
-					flushType(this.recvQueue, PacketType.DATA);
-					flushType(this.sendQueue, PacketType.DATA_ACK);
-					transportFile();
+					if (transportFile()) {
+						if (!Ringo.this.config.isStream()) {
+							this.recvQueue.discard(PacketType.DATA);
+						}
+						worked = true;
+					}
 				} catch (Exception e) {
 					e.printStackTrace();
 				}
+
+				if (worked) {
+					this.idle.reset();
+				} else {
+					this.idle.idle();
+				}
 			}
 		}
 
@@ -1342,43 +1614,91 @@ public class Ringo implements Runnable {
 			// Hashtable<String, Boolean> windowAckList = new Hashtable<String, Boolean>();
 			// System.out.println("file: " + file);
 
+			FileChannel channel = null;
 			try {
-				FileInputStream fileReader;
-				fileReader = new FileInputStream(file);
+				channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
 				this.route = tracker.getRoute();
 				// System.out.println("Route for this data transfer: " +this.route);
 
-				int seqNumber = 0;
-				byte [] data = new byte[10000];
-				Long seqLength = (long)Math.ceil(file.length()/10000.0);
-
-				this.window = new RingoPacket[seqLength.intValue()];
-
-				while (fileReader.read(data) != -1) {
-					RingoPacket toSend = this.createSendPacket(data, seqNumber, seqLength);
-					toSend.setFileName(filepath);
-					toSend.setRoute(this.route);
-					this.window[seqNumber%this.window.length] = toSend;
+				// chunks are views into the mapped file, the contents are only copied into the outgoing datagram
+				long fileSize = channel.size();
+				int chunkSize = chunkSizeFor(filepath);
+				Long seqLength = (fileSize + chunkSize - 1) / chunkSize;
+				if (seqLength > Integer.MAX_VALUE) {
+					System.out.println("File is too large to send in chunks of " + chunkSize + " bytes.");
+					return;
+				}
+				MappedChunks chunks = new MappedChunks(channel, FileChannel.MapMode.READ_ONLY, chunkSize, fileSize);
+
+				// only compress files whose first chunk actually shrinks
+				ChunkCompressor packer = null;
+				if (Ringo.this.config.isCompress() && seqLength > 0) {
+					ByteBuffer sample = chunks.view(0, (int) Math.min(fileSize, chunkSize));
+					if (this.compressor.isWorthwhile(sample)) {
+						packer = this.compressor;
+					}
+				}
 
-					seqNumber++;
-					if (seqNumber == seqLength.intValue() - 1) {
-						Long arrSize = file.length()%10000;
-						data = new byte[arrSize.intValue()];
+				final ChunkCompressor chunkPacker = packer;
+				long transferId = transferIdFor(file, fileSize);
+				ArrayList<String> route = this.route;
+				ChunkSource source = (int seqNumber) -> {
+					ByteBuffer data = chunks.view(seqNumber, (int) Math.min(chunkSize, fileSize - (long) seqNumber * chunkSize));
+					return createChunk(data, seqNumber, seqLength, chunkSize, filepath, chunkPacker, transferId, route);
+				};
+
+				if (Ringo.this.config.isStream()) {
+					if (this.sessions.containsKey(transferId) || this.sessions.containsKey(transferId | 1)) {
+						System.out.println("Already sending " + filepath + ".");
+						return;
+					}
+					// only a window of chunks is ever built, the rest stays on disk until acks make room;
+					// the sessions own the channel from here on and close it when the transfer is done
+					if (Ringo.this.config.isStripe() && seqLength > 1) {
+						// the second half goes the other way around the ring, so both links of every Ringo carry the file
+						ArrayList<String> reverse = new ArrayList<String>(route);
+						Collections.reverse(reverse);
+						long counterId = transferId | 1;
+						ChunkSource clockwise = (int seqNumber) -> {
+							RingoPacket chunk = source.chunk(seqNumber);
+							chunk.setStriped(true);
+							return chunk;
+						};
+						ChunkSource counter = (int seqNumber) -> {
+							ByteBuffer data = chunks.view(seqNumber, (int) Math.min(chunkSize, fileSize - (long) seqNumber * chunkSize));
+							RingoPacket chunk = createChunk(data, seqNumber, seqLength, chunkSize, filepath, chunkPacker, counterId, reverse);
+							chunk.setStriped(true);
+							return chunk;
+						};
+						int middle = middleChunk(seqLength);
+						this.sessions.put(transferId, new SendSession(channel, clockwise, 0, middle, transferId, route));
+						this.sessions.put(counterId, new SendSession(channel, counter, middle, seqLength.intValue(), counterId, reverse));
 					} else {
-						data = new byte[10000];
+						this.sessions.put(transferId, new SendSession(channel, source, 0, seqLength.intValue(), transferId, route));
 					}
+					channel = null;
+					return;
+				}
+
+				this.window = new RingoPacket[seqLength.intValue()];
+				for (int seqNumber = 0; seqNumber < seqLength.intValue(); seqNumber++) {
+					this.window[seqNumber%this.window.length] = source.chunk(seqNumber);
 				}
 
 				try {
-					int highestAcked = transmitWindow(this.window, seqLength.intValue());
+					// the final acks of the last file may still trickle in, and would ack this one
+					this.recvQueue.discard(PacketType.DATA_ACK, this.window[0].getDestIP(), this.window[0].getDestPort());
+					this.recvQueue.discard(PacketType.DATA_NACK, this.window[0].getDestIP(), this.window[0].getDestPort());
+					int highestAcked = transmitWindow(this.window, seqLength.intValue() - 1);
 					while (highestAcked < seqLength.intValue() - 1) {
 						// if churn occuring
-						if (!tracker.isOnline(this.window[0].getDestIP()+":"+this.window[0].getDestPort())) {
+						String nextHop = Ringo.this.peers.intern(this.window[0].getDestIP(), this.window[0].getDestPort()).getKey();
+						if (!tracker.isOnline(nextHop)) {
 							// System.out.println("Next node is experiencing churn. Reversing.");
 							ArrayList<String> replacementRoute = new ArrayList<String>();
 
 							for (int i = this.route.size() - 1; i >= 0; i--) {
-								if (!this.route.get(i).equals(this.window[0].getDestIP()+":"+this.window[0].getDestPort())) {
+								if (!this.route.get(i).equals(nextHop)) {
 									replacementRoute.add(this.route.get(i));
 								}
 							}
@@ -1388,13 +1708,14 @@ public class Ringo implements Runnable {
 							for (int i = 0; i < this.window.length; i++) {
 								String destRingo = getPrevRingo();
 								RingoPacket filePacket = this.window[i];
-								filePacket.setDestIP(destRingo.substring(0, destRingo.indexOf(":")));
-								filePacket.setDestPort(Integer.parseInt(destRingo.substring(destRingo.indexOf(":") + 1)));
+								PeerRegistry.Peer dest = Ringo.this.peers.intern(destRingo);
+								filePacket.setDestIP(dest.getHost());
+								filePacket.setDestPort(dest.getPort());
 								filePacket.setRoute(replacementRoute);
 							}
 						}
 
-						highestAcked = transmitWindow(this.window, seqLength.intValue());
+						highestAcked = transmitWindow(this.window, seqLength.intValue() - 1);
 					}
 
 					System.out.println("Sent the whole file.");
@@ -1403,7 +1724,77 @@ public class Ringo implements Runnable {
 				}
 			} catch (Exception e) {
 				e.printStackTrace();
+			} finally {
+				if (channel != null) {
+					try {
+						channel.close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Picks the chunk size for a transfer over this.route. A configured size is
+		 * used as given; otherwise each chunk is sized so its DATA datagram fits the
+		 * smallest MTU on the way and never gets IP-fragmented, since losing one
+		 * fragment loses the whole chunk.
+		 * @param filepath File being sent, its name goes into every DATA packet
+		 * @return Chunk size in bytes
+		 */
+		private int chunkSizeFor(String filepath) {
+			int datagram = RingoPacketCodec.MAX_DATAGRAM_SIZE;
+			String longestHost = this.localName;
+			for (String hop : this.route) {
+				PeerRegistry.Peer peer = Ringo.this.peers.intern(hop);
+				String host = peer.getHost();
+				datagram = Math.min(datagram, localMtu(peer) - RingoPacketCodec.IP_UDP_OVERHEAD);
+				if (host.length() > longestHost.length()) {
+					longestHost = host;
+				}
+			}
+
+			// measure an empty DATA packet as forwarders will address it, with every optional field
+			RingoPacket probe = this.createSendPacket(ByteBuffer.allocate(0), 0, 0);
+			probe.setSourceIP(longestHost);
+			probe.setDestIP(longestHost);
+			probe.setFileName(filepath);
+			probe.setRoute(this.route);
+			probe.setTransferId(1);
+			if (Ringo.this.config.isCompress()) {
+				probe.setCompressed(0);
+			}
+			int header = RingoPacketCodec.encode(probe).length;
+
+			int configured = Ringo.this.config.getChunkSize();
+			if (configured > 0) {
+				return Math.min(configured, RingoPacketCodec.MAX_DATAGRAM_SIZE - header);
+			}
+			return Math.max(datagram - header, 1);
+		}
+
+		/**
+		 * Java can't discover the path MTU, so this takes the smallest MTU of the
+		 * local interfaces that could carry traffic to host (loopback for local
+		 * addresses, every other interface otherwise).
+		 * @param peer A Ringo
+		 * @return MTU in bytes, DEFAULT_MTU if none could be read
+		 */
+		private int localMtu(PeerRegistry.Peer peer) {
+			int mtu = Integer.MAX_VALUE;
+			try {
+				InetAddress address = peer.getAddress().getAddress();
+				boolean loopback = address != null && address.isLoopbackAddress();
+				for (NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+					if (nif.isUp() && nif.isLoopback() == loopback && nif.getMTU() > 0) {
+						mtu = Math.min(mtu, nif.getMTU());
+					}
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
+			return (mtu == Integer.MAX_VALUE) ? DEFAULT_MTU : mtu;
 		}
 
 		/**
@@ -1413,18 +1804,30 @@ public class Ringo implements Runnable {
 		 * @param seqLength Length of packet data
 		 * @return RingoPacket to send
 		 */
-		private RingoPacket createSendPacket(byte [] data, int seqNumber, long seqLength) {
+		private RingoPacket createSendPacket(ByteBuffer data, int seqNumber, long seqLength) {
+			return createSendPacket(data, seqNumber, seqLength, this.route);
+		}
+
+		/**
+		 * Convert a chunk of data into a RingoPacket addressed along the given route
+		 * @param data File contents to send (partial)
+		 * @param seqNumber Sequence number of Packet
+		 * @param seqLength Length of packet data
+		 * @param route Route of the transfer the chunk belongs to
+		 * @return RingoPacket to send
+		 */
+		private RingoPacket createSendPacket(ByteBuffer data, int seqNumber, long seqLength, ArrayList<String> route) {
 			// need to define a keep-alive method that returns the next host name and port
-			// RingoPacket toSend = new RingoPacket(this.localName, this.localPort, this.keepAlive.nextHost, this.keepAlive.nextPort, 0, seqNumber, PacketType.DATA, this.role, this.ringSize);
-			String next = getNextRingo();
+			// RingoPacket toSend = new RingoPacket(this.localName, this.localPort, this.keepAlive.nextHost, this.keepAlive.nextPort, 0, seqNumber, PacketType.DATA, this.role);
+			PeerRegistry.Peer next = Ringo.this.peers.intern(nextRingo(route));
 			RingoPacket toSend;
 
 			if (data == null) {
-				toSend = new RingoPacket(this.localName, this.localPort, next.substring(0, next.indexOf(":")), Integer.parseInt(next.substring(next.indexOf(":") + 1)), seqLength, seqNumber, PacketType.DATA, this.role, 0);
+				toSend = new RingoPacket(this.localName, this.localPort, next.getHost(), next.getPort(), seqLength, seqNumber, PacketType.DATA, this.role);
 			} else {
 				toSend = null;
 				try {
-					toSend = new RingoPacket(this.localName, this.localPort, next.substring(0, next.indexOf(":")), Integer.parseInt(next.substring(next.indexOf(":") + 1)), seqLength, seqNumber, PacketType.DATA, this.role, 0);
+					toSend = new RingoPacket(this.localName, this.localPort, next.getHost(), next.getPort(), seqLength, seqNumber, PacketType.DATA, this.role);
 				} catch (Exception e) {
 					e.printStackTrace();
 				}
@@ -1433,6 +1836,52 @@ public class Ringo implements Runnable {
 
 			return toSend;
 		}
+
+		/**
+		 * Builds the DATA packet for one chunk of a file being sent
+		 * @param data Uncompressed chunk, a view into the file
+		 * @param seqNumber Sequence number of the chunk
+		 * @param seqLength Number of chunks in the file
+		 * @param chunkSize Size every chunk but the last one is cut to
+		 * @param filepath File being sent
+		 * @param packer Compressor to deflate the chunk with, or null to send it as-is
+		 * @param transferId Id of the transfer
+		 * @param route Route of the transfer
+		 * @return Sealed DATA packet addressed to the next Ringo
+		 */
+		private RingoPacket createChunk(ByteBuffer data, int seqNumber, long seqLength, int chunkSize, String filepath, ChunkCompressor packer, long transferId, ArrayList<String> route) {
+			RingoPacket toSend = this.createSendPacket(data, seqNumber, seqLength, route);
+			if (packer != null) {
+				// a chunk that doesn't shrink is sent as-is, the flag is per packet
+				ByteBuffer packed = packer.compress(toSend.getPayload());
+				if (packed != null) {
+					toSend.setCompressed(toSend.getPayload().remaining());
+					toSend.setPayload(packed);
+				}
+			}
+			toSend.sealPayload();
+			toSend.setChunkSize(chunkSize);
+			toSend.setFileName(filepath);
+			toSend.setRoute(route);
+			toSend.setStreaming(Ringo.this.config.isStream());
+			toSend.setTransferId(transferId);
+			return toSend;
+		}
+
+		/**
+		 * Names a transfer after this Ringo and the file, so sending the same
+		 * unchanged file again lets the Ringos on the route resume it. The low bit
+		 * is left clear, a striped file's counter-clockwise stripe sets it.
+		 * @param file File being sent
+		 * @param fileSize Its size in bytes
+		 * @return Id of the transfer, even and never 0
+		 */
+		private long transferIdFor(File file, long fileSize) {
+			String name = Ringo.this.self.getKey() + "|" + file.getAbsolutePath() + "|" + fileSize + "|" + file.lastModified();
+			long id = UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).getMostSignificantBits() & ~1L;
+			return (id == 0) ? 2 : id;
+		}
+
 		/**
 		 *  if there is a DATA packet in the receiveQueue
 		 *	finishing FORWARDING or RECEIVING entire file
@@ -1443,18 +1892,25 @@ public class Ringo implements Runnable {
 		 *		receive DATA packets and store in file object
 		 *	 if FORWARDING:
 		 *		once enough DATA packets to fill up window are acquired, call transmitWindow
+		 * @return true if there was a DATA packet to handle
 		 */
-		private void transportFile() {
+		private boolean transportFile() {
 			// System.out.println("z");
 
 			String lastRingo = getPrevRingo();
-			RingoPacket filePacket = takeSpecific(this.recvQueue, PacketType.DATA, lastRingo.substring(0, lastRingo.indexOf(":")), Integer.parseInt(lastRingo.substring(lastRingo.indexOf(":") + 1)));
+			RingoPacket filePacket = takeIntactData(lastRingo);
 			if (filePacket == null) {
 				lastRingo = getNextRingo();
-				filePacket = takeSpecific(this.recvQueue, PacketType.DATA, lastRingo.substring(0, lastRingo.indexOf(":")), Integer.parseInt(lastRingo.substring(lastRingo.indexOf(":") + 1)));
+				filePacket = takeIntactData(lastRingo);
 			}
 
 			if (filePacket != null) {
+				if (filePacket.isStreaming()) {
+					// slipped in after dispatchStreams() ran
+					dispatch(filePacket);
+					return true;
+				}
+
 				if (this.role == Role.SENDER && filePacket.getReceived()) {
 					//System.out.println("Ring traversed");
 					Long finishAck = filePacket.getSequenceLength();
@@ -1464,8 +1920,8 @@ public class Ringo implements Runnable {
 					this.sendQueue.add(ack);
 					this.sendQueue.add(ack1);
 					this.sendQueue.add(ack2);
-					flushType(this.recvQueue, PacketType.DATA);
-					return;
+					this.recvQueue.discard(PacketType.DATA);
+					return true;
 				}
 
 				if (this.role == Role.FORWARDER) {
@@ -1474,45 +1930,50 @@ public class Ringo implements Runnable {
 
 				String hostName = filePacket.getSourceIP();
 				int hostPort = filePacket.getSourcePort();
-				int ackNum = filePacket.getSequenceNumber();
+				int ackNum = -1;
 				Long seqLength = filePacket.getSequenceLength();
 				this.route = filePacket.getRoute();
 
 				boolean [] accepted = new boolean[seqLength.intValue()];
 				this.window = new RingoPacket[seqLength.intValue()];
 				this.file = new RingoPacket[seqLength.intValue()];
-				this.file[filePacket.getSequenceNumber()] = filePacket;
-
 				String fileName = filePacket.getFileName();
 
-				while (ackNum < seqLength - 1) {
-					// create an ack for this data packet
-					RingoPacket ack = createAck(filePacket, ackNum);
-					this.sendQueue.add(ack);
+				// a RECEIVER writes each chunk as it is accepted, while the rest are still arriving
+				ChunkWriter writer = null;
+				if (this.role == Role.RECEIVER && !this.fileName.equals(fileName)) {
+					writer = openFile(filePacket);
+				}
+				keepChunk(filePacket, writer);
 
+				while (ackNum < seqLength - 1) {
 					// update data structures to show that we've obtained a DATA packet
 					accepted[filePacket.getSequenceNumber()] = true;
 
-					ackNum = getAckNum(accepted);
+					ackNum = getAckNum(accepted, ackNum);
+
+					// create an ack for this data packet
+					RingoPacket ack = createAck(filePacket, ackNum, sackRanges(accepted, ackNum));
+					this.sendQueue.add(ack);
 
 					// get the next data packet in the sequence
 					if (ackNum < seqLength - 1) {
-						filePacket = takeSpecific(this.recvQueue, PacketType.DATA, lastRingo.substring(0, lastRingo.indexOf(":")), Integer.parseInt(lastRingo.substring(lastRingo.indexOf(":") + 1)));
+						// blocks on the mailbox instead of polling it
+						filePacket = takeIntactData(lastRingo, WINDOW_TIMEOUT_MILLIS);
 						while (filePacket == null) {
-							filePacket = takeSpecific(this.recvQueue, PacketType.DATA, lastRingo.substring(0, lastRingo.indexOf(":")), Integer.parseInt(lastRingo.substring(lastRingo.indexOf(":") + 1)));
+							filePacket = takeIntactData(lastRingo, WINDOW_TIMEOUT_MILLIS);
 						}
 
 						if ((this.role == Role.RECEIVER || this.role == Role.FORWARDER) && accepted[filePacket.getSequenceNumber()] == false) {
-							this.file[filePacket.getSequenceNumber()] = filePacket;
-							// this.file[filePacket.getSequenceNumber()] = filePacket;
+							keepChunk(filePacket, writer);
 						}
 					}
 				}
 
-				flushType(this.recvQueue, PacketType.DATA);
+				this.recvQueue.discard(PacketType.DATA);
 
-				if (this.role == Role.RECEIVER && !this.fileName.equals(filePacket.getFileName())) {
-					writeFile(fileName);
+				if (writer != null) {
+					finishFile(writer, fileName);
 					this.fileName = fileName;
 				}
 
@@ -1527,21 +1988,26 @@ public class Ringo implements Runnable {
 						filePacket = this.file[i];
 						filePacket.setSourceIP(this.localName);
 						filePacket.setSourcePort(this.localPort);
-						filePacket.setDestIP(destRingo.substring(0, destRingo.indexOf(":")));
-						filePacket.setDestPort(Integer.parseInt(destRingo.substring(destRingo.indexOf(":") + 1)));
+						PeerRegistry.Peer dest = Ringo.this.peers.intern(destRingo);
+						filePacket.setDestIP(dest.getHost());
+						filePacket.setDestPort(dest.getPort());
 						filePacket.setReceived(true);
 						this.window[i] = filePacket;
 					}
 
+					// the final acks of the last file may still trickle in, and would ack this one
+					this.recvQueue.discard(PacketType.DATA_ACK, this.window[0].getDestIP(), this.window[0].getDestPort());
+					this.recvQueue.discard(PacketType.DATA_NACK, this.window[0].getDestIP(), this.window[0].getDestPort());
 					int highestAck = transmitWindow(this.window, this.window.length - 1);
 					while (highestAck < this.window.length - 1) {
 						// check for churn
-						if (!tracker.isOnline(this.window[0].getDestIP()+":"+this.window[0].getDestPort())) {
+						String nextHop = Ringo.this.peers.intern(this.window[0].getDestIP(), this.window[0].getDestPort()).getKey();
+						if (!tracker.isOnline(nextHop)) {
 							// System.out.println("Next node is experiencing churn. Reversing.");
 							ArrayList<String> replacementRoute = new ArrayList<String>();
 
 							for (int i = this.route.size() - 1; i >= 0; i--) {
-								if (!this.route.get(i).equals(this.window[0].getDestIP()+":"+this.window[0].getDestPort())) {
+								if (!this.route.get(i).equals(nextHop)) {
 									replacementRoute.add(this.route.get(i));
 								}
 							}
@@ -1551,8 +2017,9 @@ public class Ringo implements Runnable {
 							for (int i = 0; i < this.file.length; i++) {
 								String destRingo = getNextRingo();
 								filePacket = this.file[i];
-								filePacket.setDestIP(destRingo.substring(0, destRingo.indexOf(":")));
-								filePacket.setDestPort(Integer.parseInt(destRingo.substring(destRingo.indexOf(":") + 1)));
+								PeerRegistry.Peer dest = Ringo.this.peers.intern(destRingo);
+								filePacket.setDestIP(dest.getHost());
+								filePacket.setDestPort(dest.getPort());
 								filePacket.setRoute(replacementRoute);
 								this.window[i] = filePacket;
 							}
@@ -1564,50 +2031,121 @@ public class Ringo implements Runnable {
 				}
 
 
-				flushSpecific(this.recvQueue, PacketType.DATA, hostName, hostPort);
+				this.recvQueue.discard(PacketType.DATA, hostName, hostPort);
+				return true;
 			}
+
+			return false;
 		}
 
 		/**
-		 * Pull data from File Output stream (that came originally from Packets) and
-		 * contents into the file.
-		 * This is called by the receiver.
-		 *
-		 * The output file will be the same as the one originally sent, but the name will have an "-received" appended.
+		 * @param transferId Id of a streamed transfer
+		 * @param suffix Kind of state
+		 * @return File in the spool directory for that state of the transfer on this Ringo
+		 */
+		private File stateFile(long transferId, String suffix) {
+			return new File(Ringo.this.config.getSpoolDir(), "ringo-" + this.localPort + "-" + Long.toHexString(transferId) + suffix);
+		}
+
+		/**
+		 * Takes the next DATA packet sent by the given Ringo. A packet whose
+		 * payload fails its checksum is dropped, and a DATA_NACK for just its
+		 * sequence number goes back so only that chunk is resent.
 		 *
-		 * @param fileName Name of the file to write
+		 * @param ringo hostname:port of the Ringo that sent the packet
+		 * @return an intact DATA packet, or null if there is none
 		 */
-		private void writeFile(String fileName) {
-			FileOutputStream fop = null;
-			File writeFile;
+		private RingoPacket takeIntactData(String ringo) {
+			return takeIntactData(ringo, 0);
+		}
 
+		/**
+		 * Like takeIntactData(ringo), but waits for a DATA packet if there is none yet
+		 * @param ringo hostname:port of the Ringo that sent the packet
+		 * @param timeoutMillis How long to wait, 0 not to
+		 * @return an intact DATA packet, or null if none arrived in time
+		 */
+		private RingoPacket takeIntactData(String ringo, long timeoutMillis) {
+			PeerRegistry.Peer peer = Ringo.this.peers.intern(ringo);
+			RingoPacket filePacket = null;
 			try {
-				writeFile = new File(fileName.substring(0, fileName.indexOf(".")) + "-received" + fileName.substring(fileName.indexOf(".")));
-				fop = new FileOutputStream(writeFile, true);
+				filePacket = this.recvQueue.poll(PacketType.DATA, peer.getHost(), peer.getPort(), timeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			if (filePacket != null && !filePacket.isPayloadIntact()) {
+				RingoPacket nack = Ringo.this.factory.makeTemplated(filePacket.getSourceIP(), filePacket.getSourcePort(), filePacket.getSequenceLength(), filePacket.getSequenceNumber(), PacketType.DATA_NACK);
+				nack.setTransferId(filePacket.getTransferId());
+				this.sendQueue.add(nack);
+				return null;
+			}
 
-				// if file doesnt exists, then create it
-				if (!writeFile.exists()) {
-					writeFile.createNewFile();
-				}
+			return filePacket;
+		}
 
-				for (int i = 0; i < this.file.length; i++) {
-					fop.write(this.file[i].getPayload());
+		/**
+		 * Creates the file a RECEIVER writes a transfer into, preallocated for all of its chunks.
+		 *
+		 * The output file will be the same as the one originally sent, but the name will have an "-received" appended.
+		 *
+		 * @param first First DATA packet received for the transfer
+		 * @return Writer for the file, or null if it couldn't be created
+		 */
+		private ChunkWriter openFile(RingoPacket first) {
+			String fileName = first.getFileName();
+			File writeFile = new File(fileName.substring(0, fileName.indexOf(".")) + "-received" + fileName.substring(fileName.indexOf(".")));
+			try {
+				if (first.isStreaming()) {
+					// a streamed transfer may only hold a window of chunks in memory
+					return new ChunkWriter(writeFile, first.getSequenceLength(), first.getChunkSize(), Ringo.this.config.getWindow());
 				}
-				
-				fop.flush();
-				fop.close();
-
-				System.out.println("Received file: " +fileName);
+				return new ChunkWriter(writeFile, first.getSequenceLength(), first.getChunkSize());
 			} catch (IOException e) {
 				e.printStackTrace();
-			} finally {
-				try {
-					if (fop != null) {
-						fop.close();
+				return null;
+			}
+		}
+
+		/**
+		 * Keeps an accepted chunk to pass on to the next Ringo, and has it written
+		 * to disk at sequenceNumber * chunkSize if this Ringo is receiving the file.
+		 * @param chunk Intact DATA packet
+		 * @param writer Writer of the received file, or null if not writing one
+		 */
+		private void keepChunk(RingoPacket chunk, ChunkWriter writer) {
+			this.file[chunk.getSequenceNumber()] = chunk;
+			if (writer != null) {
+				writer.write(chunk);
+			}
+		}
+
+		/**
+		 * Waits for every chunk to reach the disk. Uncompressed chunks are then served
+		 * from a mapping of the written file when they are passed on, so their receive
+		 * buffers can be freed instead of holding the file in the heap. Compressed chunks
+		 * keep their payload, since the checksum covers the bytes on the wire.
+		 * @param writer Writer of the received file
+		 * @param fileName Name of the file that was sent
+		 */
+		private void finishFile(ChunkWriter writer, String fileName) {
+			try {
+				writer.finish();
+				System.out.println("Received file: " +fileName);
+
+				if (this.file.length == 0)
+					return;
+				// mapped in segments, a file of 2 GB or more doesn't fit one mapping
+				try (FileChannel channel = writer.open()) {
+					MappedChunks written = new MappedChunks(channel, FileChannel.MapMode.READ_ONLY, this.file[0].getChunkSize(), channel.size());
+					for (int i = 0; i < this.file.length; i++) {
+						RingoPacket chunk = this.file[i];
+						if (!chunk.isCompressed()) {
+							chunk.setPayload(written.view(chunk.getSequenceNumber(), chunk.getPayload().remaining()));
+						}
 					}
-				} catch (IOException e) {
-					e.printStackTrace();
 				}
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
 		}
 
@@ -1618,20 +2156,81 @@ public class Ringo implements Runnable {
 		 * If, for example, packets 2, 3, 4, and 5 were ACK'd,
 		 * this method would return -1, as 0 was never ACK'd.
 		 * @param accepted
+		 * @param ackNum ACK number returned last time, everything up to it is known to be ACK'd
 		 * @return ACK number to send back to sender
 		 */
-		private int getAckNum(boolean [] accepted) {
-			/*while (ackNum < accepted.length && accepted[ackNum] != false) {
+		private int getAckNum(boolean [] accepted, int ackNum) {
+			while (ackNum + 1 < accepted.length && accepted[ackNum + 1] != false) {
 				ackNum++;
-			}*/
+			}
+
+			return ackNum;
+		}
+
+		/**
+		 * Finds the first SackScoreboard.MAX_RANGES runs of accepted packets above the cumulative ACK
+		 * @param accepted
+		 * @param ackNum Cumulative ACK number
+		 * @return start, end pairs, or null if selective repeat is off or nothing above ackNum was accepted
+		 */
+		private int[] sackRanges(boolean [] accepted, int ackNum) {
+			if (Ringo.this.config.getArq() != RingoConfig.Arq.SR) {
+				return null;
+			}
 
-			for (int i = 0; i < accepted.length; i++) {
-				if (accepted[i] == false) {
-					return i - 1;
+			ArrayList<Integer> ranges = new ArrayList<Integer>();
+			int seq = ackNum + 1;
+			while (seq < accepted.length && ranges.size() < 2 * SackScoreboard.MAX_RANGES) {
+				if (accepted[seq]) {
+					int start = seq;
+					while (seq < accepted.length && accepted[seq]) {
+						seq++;
+					}
+					ranges.add(start);
+					ranges.add(seq);
+				} else {
+					seq++;
 				}
 			}
+			return toSack(ranges);
+		}
 
-			return accepted.length - 1;
+		/**
+		 * Like sackRanges(accepted, ackNum), for a streamed transfer
+		 * @param progress Chunks accepted so far
+		 * @param base First chunk not accepted yet
+		 * @param end Chunk after the last one of the transfer
+		 * @return start, end pairs, or null if selective repeat is off or nothing above base was accepted
+		 */
+		private int[] sackRanges(ProgressBitmap progress, int base, int end) {
+			if (Ringo.this.config.getArq() != RingoConfig.Arq.SR) {
+				return null;
+			}
+
+			ArrayList<Integer> ranges = new ArrayList<Integer>();
+			int seq = progress.nextSet(base);
+			while (seq < end && ranges.size() < 2 * SackScoreboard.MAX_RANGES) {
+				ranges.add(seq);
+				seq = Math.min(progress.nextClear(seq), end);
+				ranges.add(seq);
+				seq = progress.nextSet(seq);
+			}
+			return toSack(ranges);
+		}
+
+		/**
+		 * @param ranges start, end pairs
+		 * @return The pairs as a SACK section, or null if there are none
+		 */
+		private int[] toSack(ArrayList<Integer> ranges) {
+			if (ranges.isEmpty()) {
+				return null;
+			}
+			int[] sack = new int[ranges.size()];
+			for (int i = 0; i < sack.length; i++) {
+				sack[i] = ranges.get(i);
+			}
+			return sack;
 		}
 
 		/**
@@ -1641,19 +2240,40 @@ public class Ringo implements Runnable {
 		 * @return new RingoPacket to send to other Ringo
 		 */
 		private RingoPacket createAck(RingoPacket base, int ackNum) {
-			RingoPacket ack = new RingoPacket(this.localName, this.localPort, base.getSourceIP(), base.getSourcePort(), base.getSequenceLength(), ackNum, PacketType.DATA_ACK, this.role, 0);
+			RingoPacket ack = Ringo.this.factory.makeTemplated(base.getSourceIP(), base.getSourcePort(), base.getSequenceLength(), ackNum, PacketType.DATA_ACK);
+			ack.setTransferId(base.getTransferId());
+			return ack;
+		}
+
+		/**
+		 * Create an ACK packet that also reports what was received beyond ackNum
+		 * @param base Packet to respond to
+		 * @param ackNum ACK number to include in output packet
+		 * @param sack SACK ranges, or null for none
+		 * @return new RingoPacket to send to other Ringo
+		 */
+		private RingoPacket createAck(RingoPacket base, int ackNum, int[] sack) {
+			RingoPacket ack = createAck(base, ackNum);
+			if (sack != null) {
+				ack.setSack(sack);
+			}
 			return ack;
 		}
 
 		// gets previous ringo in route arraylist
 		private String getPrevRingo() {
-			if (this.route.get(0).equals(this.localName + ":" + this.localPort)) {
-				return this.route.get(this.route.size() - 1);
+			return prevRingo(this.route);
+		}
+
+		// gets previous ringo in the given route
+		private String prevRingo(ArrayList<String> route) {
+			if (route.get(0).equals(Ringo.this.self.getKey())) {
+				return route.get(route.size() - 1);
 			}
 
-			for (int i = 1; i < this.route.size(); i++) {
-				if (this.route.get(i).equals(this.localName + ":" + this.localPort)) {
-					return this.route.get(i - 1);
+			for (int i = 1; i < route.size(); i++) {
+				if (route.get(i).equals(Ringo.this.self.getKey())) {
+					return route.get(i - 1);
 				}
 			}
 
@@ -1665,77 +2285,883 @@ public class Ringo implements Runnable {
 		 * @return hostname:port of the next Ringo in the route.
 		 */
 		private String getNextRingo() {
-			for (int i = 0; i < this.route.size() - 1; i++) {
-				if (this.route.get(i).equals(this.localName + ":" + this.localPort)) {
-					return this.route.get(i + 1);
+			return nextRingo(this.route);
+		}
+
+		/**
+		 * Pulls the next Ringo in the given route
+		 * @param route Route of a transfer
+		 * @return hostname:port of the next Ringo in the route.
+		 */
+		private String nextRingo(ArrayList<String> route) {
+			for (int i = 0; i < route.size() - 1; i++) {
+				if (route.get(i).equals(Ringo.this.self.getKey())) {
+					return route.get(i + 1);
 				}
 			}
 
-			if (this.route.get(this.route.size() - 1).equals(this.localName + ":" + this.localPort)) {
-				return this.route.get(0);
+			if (route.get(route.size() - 1).equals(Ringo.this.self.getKey())) {
+				return route.get(0);
 			}
 
 			return "";
 		}
 
 		// used by SENDER, FORWARDER, and RECEIVER
-		private int transmitWindow(RingoPacket [] window, int lastIndex) {
-			// implement go-back-N with cumulative ACK approach and window-timeout
+		int transmitWindow(RingoPacket [] window, int lastIndex) {
+			// implement go-back-N with cumulative ACK approach and window-timeout,
+			// or selective repeat, which skips SACK'd packets and fast-retransmits lost ones
 			int trials = 0;
 			int highestAck = -1;
+			int offset = window[0].getSequenceNumber();
+			SackScoreboard board = null;
+			if (Ringo.this.config.getArq() == RingoConfig.Arq.SR) {
+				board = new SackScoreboard(lastIndex + 1, offset);
+			}
+			CongestionController.Flight flight = controllerFor(Ringo.this.peers.intern(window[0].getDestIP(), window[0].getDestPort())).open(lastIndex + 1);
 			LinkedBlockingQueue<Boolean> done = new LinkedBlockingQueue<Boolean>();
 
 			while (trials < 10) {
-				Timer windowTimer = new Timer();
-				windowTimer.schedule(new WindowTimerTask("some task", done), 500L);
+				// a token left by the last trial's timeout would end this one straight away
+				done.clear();
+				TimerWheel.Timeout windowTimeout = Ringo.this.timers.schedule(new WindowTimerTask("some task", done), flight.getTimeoutMillis(), TimeUnit.MILLISECONDS);
 
-				for (int i = (highestAck + 1); i <= lastIndex; i++) {
-					try {
-						// System.out.println("Ringo data packet: " +window[i]);
-						this.sendQueue.put(window[i]);
-					} catch (Exception e) {
-						// System.out.println("do something");
-					}
-				}
+				// go back to the oldest unacked packet, the congestion window releases the rest as acks come in
+				int next = release(window, highestAck + 1, lastIndex, offset, board, flight);
 
-				RingoPacket ack = takeSpecific(this.recvQueue, PacketType.DATA_ACK, window[0].getDestIP(), window[0].getDestPort());
+				RingoPacket ack = this.recvQueue.takeHighest(PacketType.DATA_ACK, window[0].getDestIP(), window[0].getDestPort(), 0);
 
 				while (done.isEmpty()) {
+					// a NACK means just that chunk arrived corrupted, so resend only it
+					RingoPacket nack = this.recvQueue.take(PacketType.DATA_NACK, window[0].getDestIP(), window[0].getDestPort());
+					if (nack != null) {
+						int index = nack.getSequenceNumber() - window[0].getSequenceNumber();
+						if (index > highestAck && index <= lastIndex) {
+							flight.sent(nack.getSequenceNumber());
+							this.sendQueue.add(window[index]);
+						}
+					}
+
 					// System.out.println("highestAck: " +highestAck);
-					if (ack != null && ack.getSequenceNumber() > highestAck + window[0].getSequenceNumber()) {
-						highestAck = ack.getSequenceNumber() - window[0].getSequenceNumber();
+					if (ack != null && ack.getSequenceNumber() > highestAck + offset) {
+						flight.acked(highestAck + 1 + offset, ack.getSequenceNumber() + 1);
+						highestAck = ack.getSequenceNumber() - offset;
 						// System.out.println("highest ack: " +highestAck);
-						if (highestAck > lastIndex) {
+						if (highestAck >= lastIndex) {
 							// System.out.println("reached here");
 							break;
 						}
 					}
 
-					ack = takeSpecific(this.recvQueue, PacketType.DATA_ACK, window[0].getDestIP(), window[0].getDestPort());
+					if (ack != null && board != null) {
+						board.advance(highestAck + 1 + offset);
+						board.update(ack.getSack(), next + offset);
+						for (int seq : board.lost()) {
+							if (seq - offset < window.length) {
+								flight.lost();
+								flight.sent(seq);
+								this.sendQueue.add(window[seq - offset]);
+							}
+						}
+					}
+
+					next = release(window, Math.max(next, highestAck + 1), lastIndex, offset, board, flight);
+
+					ack = this.recvQueue.takeHighest(PacketType.DATA_ACK, window[0].getDestIP(), window[0].getDestPort(), 0);
+					if (ack == null && nack == null) {
+						this.idle.idle();
+					}
 				}
+				this.idle.reset();
+				windowTimeout.cancel();
 
-				if (highestAck > lastIndex) {
+				if (highestAck >= lastIndex) {
 					break;
 				}
-
-				try {
-					// System.out.println("Timer is complete: " +done.take());
-				} catch (Exception e) {
-					e.printStackTrace();
+				if (highestAck + 1 < next) {
+					// only what is still in flight timed out
+					flight.timedOut(highestAck + 1 + offset, next + offset);
+					if (board != null) {
+						board.timedOut();
+					}
 				}
 
 				trials++;
 			}
 
 			// System.out.println("this is where I got");
+			flight.close(highestAck + 1 + offset, lastIndex + 1 + offset);
 			return highestAck;
 		}
 
+		/**
+		 * Sends the packets of a window from index on, as many as the congestion
+		 * window to their next hop lets out now
+		 * @param window Packets of the transfer
+		 * @param index Index of the first packet to send
+		 * @param lastIndex Index of the last packet to send
+		 * @param offset Sequence number of window[0]
+		 * @param board What selective repeat knows was received, or null
+		 * @param flight Packets of the window in flight
+		 * @return Index of the first packet not sent yet
+		 */
+		private int release(RingoPacket [] window, int index, int lastIndex, int offset, SackScoreboard board, CongestionController.Flight flight) {
+			while (index <= lastIndex && flight.mayRelease()) {
+				if (board == null || !board.isSacked(index + offset)) {
+					try {
+						// System.out.println("Ringo data packet: " +window[index]);
+						this.sendQueue.put(window[index]);
+						flight.sent(index + offset);
+					} catch (Exception e) {
+						// System.out.println("do something");
+					}
+				}
+				index++;
+			}
+			if (index <= lastIndex) {
+				wakeWhenPaced(flight);
+			}
+			return index;
+		}
+
+		/**
+		 * Has the timer wake the worker once pacing lets a window release again,
+		 * since no ack may come to do it while the worker is parked
+		 * @param flight Window held back from releasing
+		 */
+		private void wakeWhenPaced(CongestionController.Flight flight) {
+			long delay = flight.getPacingDelayNanos();
+			if (delay <= 0) {
+				return;
+			}
+			long now = System.nanoTime();
+			if (this.pacedWakeAt - now > 0 && this.pacedWakeAt - (now + delay) <= 0) {
+				// a wakeup in time is already scheduled
+				return;
+			}
+			this.pacedWakeAt = now + delay;
+			Ringo.this.timers.schedule(this.wake, delay, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * @param hop Next hop of a window
+		 * @return The congestion controller of that hop, shared by every window sending to it
+		 */
+		private CongestionController controllerFor(PeerRegistry.Peer hop) {
+			CongestionController controller = this.controllers.get(hop.getId());
+			if (controller == null) {
+				controller = Ringo.this.config.newCongestionController();
+				// until its own acks say otherwise, the hop is as far as it was while the ring was set up
+				controller.getRto().seed(rttTo(hop));
+				this.controllers.put(hop.getId(), controller);
+			}
+			return controller;
+		}
+
+		/**
+		 * @param hop Another Ringo
+		 * @return RTT to it in the RTT matrix in milliseconds, or -1 if it isn't known
+		 */
+		private long rttTo(PeerRegistry.Peer hop) {
+			Integer from = Ringo.this.rttIndex.get(Ringo.this.self.getKey());
+			Integer to = Ringo.this.rttIndex.get(hop.getKey());
+			if (from == null || to == null) {
+				return -1;
+			}
+			return Ringo.this.rtt[from][to];
+		}
+
+		/**
+		 * Hands every streamed DATA packet waiting in the receive queue to the
+		 * session of its transfer
+		 * @return true if there was any
+		 */
+		private boolean dispatchStreams() {
+			if (!Ringo.this.config.isStream()) {
+				return false;
+			}
+
+			// every Ringo streams or none does, so all DATA belongs to a session
+			boolean worked = false;
+			RingoPacket packet;
+			while ((packet = this.recvQueue.take(PacketType.DATA)) != null) {
+				dispatch(packet);
+				worked = true;
+			}
+			return worked;
+		}
+
+		/**
+		 * Hands a streamed chunk to the session of its transfer, starting one for
+		 * a transfer this Ringo hasn't seen yet. A corrupted chunk is NACKed, a
+		 * chunk of a transfer that is already done here is only acked.
+		 * @param chunk Streamed DATA packet
+		 */
+		private void dispatch(RingoPacket chunk) {
+			if (!chunk.isPayloadIntact()) {
+				RingoPacket nack = Ringo.this.factory.makeTemplated(chunk.getSourceIP(), chunk.getSourcePort(), chunk.getSequenceLength(), chunk.getSequenceNumber(), PacketType.DATA_NACK);
+				nack.setTransferId(chunk.getTransferId());
+				this.sendQueue.add(nack);
+				return;
+			}
+
+			long transferId = chunk.getTransferId();
+			if (this.role == Role.SENDER && chunk.getReceived()) {
+				// the transfer went around the ring, acking past the last chunk stops the last hop
+				this.sendQueue.add(createAck(chunk, (int) chunk.getSequenceLength()));
+				this.recvQueue.discard(PacketType.DATA, transferId);
+				return;
+			}
+
+			TransferSession session = this.sessions.get(transferId);
+			if (session == null && this.finished.containsKey(transferId)) {
+				// a final ack got lost
+				this.sendQueue.add(createAck(chunk, (int) chunk.getSequenceLength() - 1));
+				return;
+			}
+
+			try {
+				if (session == null) {
+					session = new ReceiveSession(chunk);
+					this.sessions.put(transferId, session);
+				}
+				if (session instanceof ReceiveSession) {
+					((ReceiveSession) session).accept(chunk);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				dropSession(transferId);
+			}
+		}
+
+		/**
+		 * Gives every streamed transfer a turn, and closes the ones that are done
+		 * @return true if any of them sent or received anything
+		 */
+		private boolean advanceSessions() {
+			boolean worked = false;
+			long now = System.currentTimeMillis();
+			this.finished.values().removeIf((Long expiry) -> expiry < now);
+
+			for (Long transferId : new ArrayList<Long>(this.sessions.keySet())) {
+				TransferSession session = this.sessions.get(transferId);
+				try {
+					worked |= session.advance();
+					if (session.isDone()) {
+						this.sessions.remove(transferId);
+						session.close();
+						this.finished.put(transferId, now + FINISHED_LINGER_MILLIS);
+						worked = true;
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+					dropSession(transferId);
+				}
+			}
+			return worked;
+		}
+
+		/**
+		 * Gives up on a streamed transfer that failed. Its spool and progress stay
+		 * on disk, so sending it again resumes it.
+		 * @param transferId Id of the transfer
+		 */
+		private void dropSession(long transferId) {
+			TransferSession session = this.sessions.remove(transferId);
+			if (session != null) {
+				session.close();
+			}
+		}
+
+		/**
+		 * A streamed transfer this Ringo takes part in. The worker loop gives every
+		 * session a turn through advance(), so transfers of different files run
+		 * side by side instead of each holding the worker until it is done.
+		 */
+		private abstract class TransferSession {
+			protected long transferId;
+
+			/**
+			 * @param transferId Id of the transfer
+			 */
+			protected TransferSession(long transferId) {
+				this.transferId = transferId;
+			}
+
+			/**
+			 * Does whatever the transfer can do right now, without waiting
+			 * @return true if anything was sent or received
+			 * @throws IOException if a chunk can't be read or spooled
+			 */
+			public abstract boolean advance() throws IOException;
+
+			/**
+			 * @return true once this Ringo's part of the transfer is over
+			 */
+			public abstract boolean isDone();
+
+			/**
+			 * Releases the files of the transfer, and drops its leftover packets
+			 */
+			public void close() {
+				WorkerThread.this.recvQueue.discard(PacketType.DATA_ACK, this.transferId);
+				WorkerThread.this.recvQueue.discard(PacketType.DATA_NACK, this.transferId);
+			}
+		}
+
+		/**
+		 * A file, or one stripe of it, the SENDER streams to the next Ringo, read
+		 * chunk by chunk from the mapped file as the window makes room. Both
+		 * stripes of a file share its channel, the last one to close closes it.
+		 */
+		private class SendSession extends TransferSession {
+			private FileChannel channel;
+			private StreamWindow window;
+
+			/**
+			 * @param channel Open file, closed with the last session reading it
+			 * @param source Builds the chunk with a given sequence number
+			 * @param first First chunk to send
+			 * @param end Chunk after the last one to send
+			 * @param transferId Id of the transfer
+			 * @param route Route of the transfer
+			 */
+			public SendSession(FileChannel channel, ChunkSource source, int first, int end, long transferId, ArrayList<String> route) {
+				super(transferId);
+				this.channel = channel;
+				this.window = new StreamWindow(source, first, end, transferId, route);
+			}
+
+			public boolean advance() throws IOException {
+				return this.window.advance(this.window.end);
+			}
+
+			public boolean isDone() {
+				return this.window.isDone();
+			}
+
+			public void close() {
+				boolean shared = false;
+				for (TransferSession other : WorkerThread.this.sessions.values()) {
+					shared |= other instanceof SendSession && ((SendSession) other).channel == this.channel;
+				}
+				if (!shared) {
+					if (isDone()) {
+						System.out.println("Sent the whole file.");
+					}
+					try {
+						this.channel.close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+				flushTransfer(WorkerThread.this.sendQueue, PacketType.DATA, this.transferId);
+				this.window.close();
+				super.close();
+			}
+		}
+
+		/**
+		 * A streamed transfer this Ringo receives and passes on, holding only a window of it.
+		 *
+		 * Chunks are accepted up to getWindow() ahead of the first missing one; each
+		 * is spooled to disk as it arrived, recorded in the transfer's
+		 * ProgressBitmap, written into the output file if this Ringo is the
+		 * RECEIVER, and cumulatively acked. The chunks are sent on from the spool
+		 * through a StreamWindow: once all are in, or, on a FORWARDER with
+		 * cut-through on, as soon as they are accepted in order. Acks to the
+		 * previous Ringo never wait on the next one either way.
+		 *
+		 * Every SYNC_CHUNKS chunks, and when the session is closed, the spool is
+		 * flushed and then the bitmap forced to disk, so a resume after a host
+		 * crash or power loss finds every recorded chunk in the spool.
+		 *
+		 * Spool and bitmap are named after the transfer id and kept until the
+		 * transfer is passed on, so a transfer that is sent again after this Ringo
+		 * restarted only needs the chunks it didn't have yet; the first ack
+		 * already skips the rest. Chunks that arrive again are only acked.
+		 *
+		 * Each stripe of a striped file is a session of its own, on the RECEIVER
+		 * both write into one MergedFile.
+		 */
+		private class ReceiveSession extends TransferSession {
+			private int seqLength;
+			private int first;
+			private int end;
+			private MergedFile merged;
+			private String fileName;
+			private ProgressBitmap progress;
+			private int unsynced;
+			private int windowSize;
+			private ChunkSpool spool;
+			private ChunkWriter writer;
+			private StreamWindow downstream;
+			private boolean cutThrough;
+			private int base;
+			private RingoPacket last;
+
+			/**
+			 * Opens the spool and progress of the transfer, and the output file on a RECEIVER
+			 * @param first First DATA packet received for the transfer
+			 * @throws IOException if the spool or bitmap can't be opened
+			 */
+			public ReceiveSession(RingoPacket first) throws IOException {
+				super(first.getTransferId());
+				this.seqLength = (int) first.getSequenceLength();
+				this.first = firstChunk(first);
+				this.end = endChunk(first);
+				this.fileName = first.getFileName();
+				ArrayList<String> route = first.getRoute();
+
+				this.progress = new ProgressBitmap(stateFile(this.transferId, ".progress"), this.seqLength, first.getChunkSize());
+				this.unsynced = 0;
+				this.windowSize = Ringo.this.config.getWindow();
+				this.spool = new ChunkSpool(stateFile(this.transferId, ".spool"), this.seqLength, first.getChunkSize());
+				if (this.spool.isStartedOver()) {
+					// never trust bits over chunks that aren't there
+					this.progress.clear();
+				}
+				ChunkSource spooled = (int seqNumber) -> {
+					RingoPacket chunk = createSendPacket(null, seqNumber, this.seqLength, route);
+					this.spool.read(chunk);
+					chunk.setFileName(this.fileName);
+					chunk.setTransferId(this.transferId);
+					chunk.setReceived(true);
+					chunk.setStreaming(true);
+					chunk.setStriped(first.isStriped());
+					return chunk;
+				};
+				if (this.progress.count() > 0) {
+					System.out.println("Resuming " + this.fileName + ": " + this.progress.count() + " of " + (this.end - this.first) + " chunks already received.");
+				}
+
+				if (WorkerThread.this.role == Role.RECEIVER && first.isStriped()) {
+					this.merged = WorkerThread.this.merging.get(this.transferId & ~1L);
+					if (this.merged == null && !WorkerThread.this.fileName.equals(this.fileName)) {
+						ChunkWriter writer = openFile(first);
+						if (writer != null) {
+							this.merged = new MergedFile(writer);
+							WorkerThread.this.merging.put(this.transferId & ~1L, this.merged);
+						}
+					}
+					this.writer = (this.merged == null) ? null : this.merged.writer;
+				} else if (WorkerThread.this.role == Role.RECEIVER && !WorkerThread.this.fileName.equals(this.fileName)) {
+					this.writer = openFile(first);
+				}
+				if (this.writer != null) {
+					// the output file may have missed chunks queued when this Ringo went down
+					for (int seq = this.first; seq < this.end; seq++) {
+						if (this.progress.get(seq)) {
+							this.writer.write(spooled.chunk(seq));
+						}
+					}
+				}
+
+				this.downstream = new StreamWindow(spooled, this.first, this.end, this.transferId, route);
+				this.cutThrough = WorkerThread.this.role == Role.FORWARDER && Ringo.this.config.isCutThrough();
+				this.base = this.progress.nextClear(this.first);
+				this.last = first;
+			}
+
+			/**
+			 * Takes in one chunk and acks everything received in order so far
+			 * @param chunk Intact DATA packet of this transfer
+			 * @throws IOException if the chunk can't be spooled
+			 */
+			public void accept(RingoPacket chunk) throws IOException {
+				if (isReceived()) {
+					// the final acks got lost
+					WorkerThread.this.sendQueue.add(createAck(chunk, this.base - 1));
+					return;
+				}
+
+				this.last = chunk;
+				int seq = chunk.getSequenceNumber();
+				// a chunk too far ahead of the first missing one is only acked, so the sender goes back for that
+				if (seq >= this.first && seq < this.end && seq < this.base + this.windowSize && !this.progress.get(seq)) {
+					// spooled before it is recorded, so a recorded chunk is always in the spool
+					this.spool.write(chunk);
+					this.progress.set(seq);
+					if (++this.unsynced >= SYNC_CHUNKS) {
+						this.spool.flush();
+						this.progress.force();
+						this.unsynced = 0;
+					}
+					if (this.writer != null) {
+						this.writer.write(chunk);
+					}
+					this.base = this.progress.nextClear(this.base);
+				}
+
+				// duplicates are acked too, so a lost ack is repaired
+				WorkerThread.this.sendQueue.add(createAck(chunk, this.base - 1, sackRanges(this.progress, this.base, this.end)));
+
+				if (isReceived()) {
+					received();
+				}
+			}
+
+			/**
+			 * @return true once every chunk is spooled
+			 */
+			private boolean isReceived() {
+				return this.base >= this.end;
+			}
+
+			/**
+			 * Finishes the output file and acks the whole transfer
+			 */
+			private void received() {
+				WorkerThread.this.recvQueue.discard(PacketType.DATA, this.transferId);
+
+				if (this.merged != null) {
+					// the file is only complete once both stripes are in
+					this.merged.stripesLeft--;
+					if (this.merged.stripesLeft > 0) {
+						this.writer = null;
+					} else {
+						WorkerThread.this.merging.remove(this.transferId & ~1L);
+					}
+				}
+
+				if (this.writer != null) {
+					try {
+						this.writer.finish();
+						System.out.println("Received file: " +this.fileName);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+					WorkerThread.this.fileName = this.fileName;
+					this.writer = null;
+				}
+
+				for (int i = 0; i < 5; i++) {
+					RingoPacket ack = createAck(this.last, this.base - 1);
+					WorkerThread.this.sendQueue.add(ack);
+				}
+			}
+
+			public boolean advance() throws IOException {
+				if (isReceived()) {
+					return this.downstream.advance(this.end);
+				}
+				if (this.cutThrough) {
+					// everything below base is spooled, so it can go on right away
+					return this.downstream.advance(this.base);
+				}
+				return false;
+			}
+
+			public boolean isDone() {
+				return isReceived() && this.downstream.isDone();
+			}
+
+			public void close() {
+				if (isDone()) {
+					this.spool.delete();
+					this.progress.delete();
+				} else {
+					// chunks before bits, as while receiving
+					this.spool.close();
+					this.progress.close();
+				}
+				WorkerThread.this.recvQueue.discard(PacketType.DATA, this.transferId);
+				this.downstream.close();
+				super.close();
+			}
+		}
+
+		/**
+		 * The output file both stripes of a striped transfer are written into on the RECEIVER
+		 */
+		private class MergedFile {
+			private ChunkWriter writer;
+			private int stripesLeft;
+
+			/**
+			 * @param writer Writer of the received file
+			 */
+			public MergedFile(ChunkWriter writer) {
+				this.writer = writer;
+				this.stripesLeft = 2;
+			}
+		}
+
+		/**
+		 * A striped file is split at its middle chunk. The clockwise stripe, with
+		 * an even transfer id, carries the chunks below it, and the
+		 * counter-clockwise stripe, the same id with the low bit set, the rest.
+		 * @param seqLength Number of chunks in the file
+		 * @return First chunk of the counter-clockwise stripe
+		 */
+		private int middleChunk(long seqLength) {
+			return (int) ((seqLength + 1) / 2);
+		}
+
+		/**
+		 * @param chunk DATA packet of a streamed transfer
+		 * @return First chunk of the transfer the packet belongs to
+		 */
+		private int firstChunk(RingoPacket chunk) {
+			if (chunk.isStriped() && (chunk.getTransferId() & 1) != 0) {
+				return middleChunk(chunk.getSequenceLength());
+			}
+			return 0;
+		}
+
+		/**
+		 * @param chunk DATA packet of a streamed transfer
+		 * @return Chunk after the last one of the transfer the packet belongs to
+		 */
+		private int endChunk(RingoPacket chunk) {
+			if (chunk.isStriped() && (chunk.getTransferId() & 1) == 0) {
+				return middleChunk(chunk.getSequenceLength());
+			}
+			return (int) chunk.getSequenceLength();
+		}
+
+		/**
+		 * Sending side of a streamed transfer to the next Ringo, go-back-N over a
+		 * window of getWindow() chunks. A chunk is only built once acks make room
+		 * for it, so at most a window of the transfer is in memory at a time.
+		 *
+		 * Like transmitWindow, a NACK resends just that chunk, and a timeout
+		 * resends everything from the oldest unacked chunk, or with selective
+		 * repeat only what no SACK reported, see SackScoreboard. After MAX_TRIALS
+		 * timeouts in a row the route is reversed if the next hop went offline.
+		 * New chunks and resent ones are only released as far as the congestion
+		 * controller of the next hop lets them out, and the timeout is the RTO
+		 * its RtoEstimator has for the hop.
+		 *
+		 * Each window keeps its own copy of the route and only takes the acks of
+		 * its own transfer, so windows of different transfers to the same next hop
+		 * don't interfere. A window covers the chunks [first, end) of the file,
+		 * which is all of them unless the file is striped. The window is driven by calling advance() from the
+		 * worker loop, so it can share the loop with receiving the same transfer
+		 * (cut-through forwarding) and with other transfers.
+		 */
+		private class StreamWindow {
+			private ChunkSource source;
+			private int end;
+			private long transferId;
+			private ArrayList<String> route;
+			private int windowSize;
+			private RingoPacket [] inFlight;
+			private PeerRegistry.Peer dest;
+			private int base;
+			private int next;
+			private int resend;
+			private int trials;
+			private long deadline;
+			private TimerWheel.Timeout wakeup;
+			private SackScoreboard board;
+			private CongestionController.Flight flight;
+
+			/**
+			 * @param source Builds the chunk with a given sequence number
+			 * @param first First chunk of the transfer
+			 * @param end Chunk after the last one of the transfer
+			 * @param transferId Id of the transfer
+			 * @param route Route of the transfer
+			 */
+			public StreamWindow(ChunkSource source, int first, int end, long transferId, ArrayList<String> route) {
+				this.source = source;
+				this.end = end;
+				this.transferId = transferId;
+				this.route = new ArrayList<String>(route);
+				this.windowSize = Ringo.this.config.getWindow();
+				this.inFlight = new RingoPacket[this.windowSize];
+				this.dest = Ringo.this.peers.intern(nextRingo(this.route));
+				this.base = first;
+				this.next = first;
+				this.resend = first;
+				this.trials = 0;
+				this.flight = controllerFor(this.dest).open(this.windowSize);
+				rearm();
+				if (Ringo.this.config.getArq() == RingoConfig.Arq.SR) {
+					this.board = new SackScoreboard(this.windowSize, first);
+				}
+			}
+
+			/**
+			 * @return true once every chunk was acked by the next Ringo
+			 */
+			public boolean isDone() {
+				return this.base >= this.end;
+			}
+
+			/**
+			 * Stops counting the chunks still in flight against the next hop
+			 */
+			public void close() {
+				this.flight.close(this.base, this.next);
+				if (this.wakeup != null) {
+					this.wakeup.cancel();
+				}
+			}
+
+			/**
+			 * Sends what the window has room for, takes one ACK and one NACK, and
+			 * resends the window if it timed out
+			 * @param available Chunks below this sequence number can be built by the source
+			 * @return true if anything was sent or received
+			 * @throws IOException if a chunk can't be read
+			 */
+			public boolean advance(int available) throws IOException {
+				int limit = Math.min(available, this.end);
+				if (this.next == this.base && this.next < limit) {
+					// the timeout only runs while something is in flight
+					rearm();
+				}
+
+				boolean worked = release(limit);
+
+				RingoPacket nack = WorkerThread.this.recvQueue.take(PacketType.DATA_NACK, this.dest.getHost(), this.dest.getPort(), this.transferId);
+				if (nack != null) {
+					int seq = nack.getSequenceNumber();
+					if (seq >= this.base && seq < this.next) {
+						this.flight.sent(seq);
+						WorkerThread.this.sendQueue.add(this.inFlight[seq % this.windowSize]);
+					}
+					worked = true;
+				}
+
+				RingoPacket ack = WorkerThread.this.recvQueue.takeHighest(PacketType.DATA_ACK, this.dest.getHost(), this.dest.getPort(), this.transferId);
+				if (ack != null) {
+					if (ack.getSequenceNumber() >= this.base) {
+						// the final ack of a ring traversal acks past the last chunk
+						int acked = this.base;
+						this.base = Math.min(ack.getSequenceNumber() + 1, this.end);
+						this.flight.acked(acked, this.base);
+						this.next = Math.max(this.next, this.base);
+						this.resend = Math.max(this.resend, this.base);
+						this.trials = 0;
+						rearm();
+					}
+					if (this.board != null) {
+						this.board.advance(this.base);
+						this.board.update(ack.getSack(), this.next);
+						for (int seq : this.board.lost()) {
+							this.flight.lost();
+							this.flight.sent(seq);
+							WorkerThread.this.sendQueue.add(this.inFlight[seq % this.windowSize]);
+						}
+					}
+					// the ack may have opened the congestion window
+					release(limit);
+					worked = true;
+				}
+
+				if (worked || System.currentTimeMillis() < this.deadline) {
+					return worked;
+				}
+				if (this.base == this.next) {
+					// nothing in flight, waiting on the source
+					rearm();
+					return false;
+				}
+
+				this.trials++;
+				if (this.trials >= MAX_TRIALS) {
+					this.trials = 0;
+					// if churn occuring
+					if (!tracker.isOnline(this.dest)) {
+						ArrayList<String> replacementRoute = new ArrayList<String>();
+						for (int i = this.route.size() - 1; i >= 0; i--) {
+							if (!this.route.get(i).equals(this.dest.getKey())) {
+								replacementRoute.add(this.route.get(i));
+							}
+						}
+						this.route = replacementRoute;
+						this.dest = Ringo.this.peers.intern(WorkerThread.this.role == Role.SENDER ? prevRingo(this.route) : nextRingo(this.route));
+						if (this.board != null) {
+							// what the old next hop had says nothing about the new one
+							this.board = new SackScoreboard(this.windowSize, this.base);
+						}
+						this.flight.close(this.base, this.next);
+						this.flight = controllerFor(this.dest).open(this.windowSize);
+					}
+				}
+
+				if (this.board != null) {
+					this.board.timedOut();
+				}
+				// go back to the oldest unacked chunk, and wait longer for it
+				this.flight.timedOut(this.base, this.next);
+				rearm();
+				this.resend = this.base;
+				release(limit);
+				return true;
+			}
+
+			/**
+			 * Resends what a timeout went back for, then refills the window from
+			 * the source, as far as the congestion controller lets chunks out
+			 * @param limit Chunks below this sequence number can be built by the source
+			 * @return true if anything was sent
+			 * @throws IOException if a chunk can't be read
+			 */
+			private boolean release(int limit) throws IOException {
+				boolean worked = false;
+				while (this.resend < this.next && this.flight.mayRelease()) {
+					int seq = this.resend++;
+					if (this.board != null && this.board.isSacked(seq)) {
+						continue;
+					}
+					RingoPacket chunk = this.inFlight[seq % this.windowSize];
+					address(chunk);
+					this.flight.sent(seq);
+					WorkerThread.this.sendQueue.add(chunk);
+					worked = true;
+				}
+
+				while (this.resend == this.next && this.next < limit && this.next < this.base + this.windowSize && this.flight.mayRelease()) {
+					RingoPacket chunk = this.source.chunk(this.next);
+					address(chunk);
+					this.inFlight[this.next % this.windowSize] = chunk;
+					this.flight.sent(this.next);
+					WorkerThread.this.sendQueue.add(chunk);
+					this.next++;
+					this.resend = this.next;
+					worked = true;
+				}
+				if (this.resend < this.next || (this.next < limit && this.next < this.base + this.windowSize)) {
+					wakeWhenPaced(this.flight);
+				}
+				return worked;
+			}
+
+			/**
+			 * Starts the timeout over, and has the timer wake the worker when it runs out,
+			 * so it is noticed even while the worker is parked
+			 */
+			private void rearm() {
+				long timeout = this.flight.getTimeoutMillis();
+				this.deadline = System.currentTimeMillis() + timeout;
+				if (this.wakeup != null) {
+					this.wakeup.cancel();
+				}
+				this.wakeup = Ringo.this.timers.schedule(WorkerThread.this.wake, timeout, TimeUnit.MILLISECONDS);
+			}
+
+			/**
+			 * Points a chunk at the Ringo it is sent to next, along this window's route
+			 * @param chunk DATA packet
+			 */
+			private void address(RingoPacket chunk) {
+				chunk.setSourceIP(WorkerThread.this.localName);
+				chunk.setSourcePort(WorkerThread.this.localPort);
+				chunk.setDestIP(this.dest.getHost());
+				chunk.setDestPort(this.dest.getPort());
+				chunk.setRoute(this.route);
+			}
+		}
+
 		/**
 		 * Checks to see if the window was sent before the timeout.
 		 * @author sainaidu
 		 */
-		private class WindowTimerTask extends TimerTask {
+		private class WindowTimerTask implements Runnable {
 			private String name;
 			private LinkedBlockingQueue<Boolean> done;
 
@@ -1746,6 +3172,7 @@ public class Ringo implements Runnable {
 
 		    public void run() {
 		        done.add(true);
+		        WorkerThread.this.idle.wake();
 		    }
 		}
 	}
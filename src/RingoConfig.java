@@ -0,0 +1,280 @@
+import java.io.File;
+import java.io.PrintStream;
+
+/**
+ * Optional settings of a Ringo. Each one can be given on the command line
+ * after the required arguments, as name=value. Anything not given keeps
+ * its default.
+ */
+public class RingoConfig {
+
+	/**
+	 * How a Ringo talks to its socket
+	 */
+	public enum Transport {
+		/** A blocking DatagramSocket with one receiving and one sending thread */
+		BLOCKING,
+		/** A non-blocking DatagramChannel and direct buffers, multiplexed by a Selector on one thread */
+		NIO
+	}
+
+	/**
+	 * How a window of DATA chunks is repaired
+	 */
+	public enum Arq {
+		/** Go-back-N: a timeout resends everything from the oldest unacked chunk */
+		GBN,
+		/** Selective repeat: acks carry SACK ranges, and only chunks still missing are resent */
+		SR
+	}
+
+	/**
+	 * How many DATA chunks may be in flight to a next hop, see CongestionController
+	 */
+	public enum Congestion {
+		/** As many as the window holds, all at once */
+		NONE,
+		/** Reno-style additive increase, multiplicative decrease */
+		AIMD,
+		/** CUBIC window growth after a loss */
+		CUBIC,
+		/** Paced at the measured bottleneck bandwidth, BBR-like */
+		BBR
+	}
+
+	/**
+	 * What polling threads do while they have nothing to do, see IdleStrategy
+	 */
+	public enum Idle {
+		/** Park until new work is handed over */
+		BLOCK,
+		/** Spin, then yield, then park for growing periods */
+		BACKOFF,
+		/** Yield the core to other threads */
+		YIELD,
+		/** Keep spinning on a core */
+		SPIN
+	}
+
+	/** Smallest chunk size that may be configured */
+	public static final int MIN_CHUNK_SIZE = 512;
+
+	/** Default number of chunks a streamed transfer keeps in flight */
+	public static final int DEFAULT_WINDOW = 256;
+
+	/** Largest window that may be configured */
+	public static final int MAX_WINDOW = 65536;
+
+	private boolean compress;
+	private int chunkSize;
+	private Transport transport;
+	private Idle idle;
+	private boolean stream;
+	private int window;
+	private boolean cutThrough;
+	private boolean stripe;
+	private Arq arq;
+	private Congestion congestion;
+	private File spoolDir;
+
+	public RingoConfig() {
+		this.compress = false;
+		this.chunkSize = 0;
+		this.transport = Transport.BLOCKING;
+		this.idle = Idle.BLOCK;
+		this.stream = false;
+		this.window = DEFAULT_WINDOW;
+		this.cutThrough = false;
+		this.stripe = false;
+		this.arq = Arq.GBN;
+		this.congestion = Congestion.NONE;
+		this.spoolDir = new File(System.getProperty("java.io.tmpdir"));
+	}
+
+	/**
+	 * Parses name=value options
+	 * @param args Command-line arguments
+	 * @param first Index of the first option in args
+	 * @return Config with the given options applied
+	 * @throws IllegalArgumentException if an option is unknown, has an invalid value, or needs another option that isn't given
+	 */
+	public static RingoConfig parse(String[] args, int first) throws IllegalArgumentException {
+		RingoConfig config = new RingoConfig();
+		for (int i = first; i < args.length; i++) {
+			int split = args[i].indexOf('=');
+			if (split <= 0)
+				throw new IllegalArgumentException("Options are given as name=value, not " + args[i]);
+			config.set(args[i].substring(0, split), args[i].substring(split + 1));
+		}
+		// checked once all are set, so the options may come in any order
+		if (config.stripe && !config.stream)
+			throw new IllegalArgumentException("stripe=on needs stream=on");
+		return config;
+	}
+
+	/**
+	 * Sets a single option
+	 * @param name Option name
+	 * @param value Option value
+	 * @throws IllegalArgumentException if the option is unknown or the value is invalid
+	 */
+	public void set(String name, String value) throws IllegalArgumentException {
+		ArgumentChecker<String, String> onoff = new ArgumentChecker<>((String arg) -> arg.toLowerCase());
+
+		switch (name) {
+		case "compress":
+			compress = onoff.check(value, "compress must be on or off", (String s) -> s.equals("on") || s.equals("off")).equals("on");
+			break;
+		case "chunk":
+			ArgumentChecker<String, Integer> bytes = new ArgumentChecker<>((String arg) -> arg.equalsIgnoreCase("auto") ? 0 : Integer.parseInt(arg));
+			chunkSize = bytes.check(value, "chunk must be auto or a size between " + MIN_CHUNK_SIZE + " and " + RingoPacketCodec.MAX_DATAGRAM_SIZE,
+					(Integer n) -> n == 0 || (n >= MIN_CHUNK_SIZE && n <= RingoPacketCodec.MAX_DATAGRAM_SIZE));
+			break;
+		case "transport":
+			ArgumentChecker<String, Transport> transports = new ArgumentChecker<>((String arg) -> Transport.valueOf(arg.toUpperCase()));
+			transport = transports.check(value, "transport must be blocking or nio", (Transport t) -> true);
+			break;
+		case "idle":
+			ArgumentChecker<String, Idle> idles = new ArgumentChecker<>((String arg) -> Idle.valueOf(arg.toUpperCase()));
+			idle = idles.check(value, "idle must be block, backoff, yield or spin", (Idle i) -> true);
+			break;
+		case "stream":
+			stream = onoff.check(value, "stream must be on or off", (String s) -> s.equals("on") || s.equals("off")).equals("on");
+			break;
+		case "window":
+			ArgumentChecker<String, Integer> chunks = new ArgumentChecker<>((String arg) -> Integer.parseInt(arg));
+			window = chunks.check(value, "window must be between 1 and " + MAX_WINDOW + " chunks", (Integer n) -> n >= 1 && n <= MAX_WINDOW);
+			break;
+		case "cutthrough":
+			cutThrough = onoff.check(value, "cutthrough must be on or off", (String s) -> s.equals("on") || s.equals("off")).equals("on");
+			break;
+		case "stripe":
+			stripe = onoff.check(value, "stripe must be on or off", (String s) -> s.equals("on") || s.equals("off")).equals("on");
+			break;
+		case "arq":
+			ArgumentChecker<String, Arq> arqs = new ArgumentChecker<>((String arg) -> Arq.valueOf(arg.toUpperCase()));
+			arq = arqs.check(value, "arq must be gbn or sr", (Arq a) -> true);
+			break;
+		case "cc":
+			ArgumentChecker<String, Congestion> controllers = new ArgumentChecker<>((String arg) -> Congestion.valueOf(arg.toUpperCase()));
+			congestion = controllers.check(value, "cc must be none, aimd, cubic or bbr", (Congestion c) -> true);
+			break;
+		case "spool":
+			ArgumentChecker<String, File> dirs = new ArgumentChecker<>((String arg) -> new File(arg));
+			spoolDir = dirs.check(value, "spool must be an existing directory", (File f) -> f.isDirectory());
+			break;
+		default:
+			throw new IllegalArgumentException(name + " is not a valid option");
+		}
+	}
+
+	/**
+	 * Print the available options
+	 * @param stream Where to send the help statements
+	 */
+	public static void printHelp(PrintStream stream) {
+		stream.println("Options (name=value, after the required arguments):");
+		stream.println("- compress: on/off. Deflate DATA chunks of files that compress well (default off)");
+		stream.println("- chunk: auto or bytes. DATA chunk size; auto fits each chunk into one unfragmented datagram on the path MTU (default auto)");
+		stream.println("- transport: blocking/nio. Blocking socket with a thread each way, or one selector thread on a channel (default blocking)");
+		stream.println("- idle: block/backoff/yield/spin. What the sender, worker and main threads do while idle; spin trades a core per thread for latency (default block)");
+		stream.println("- stream: on/off. Stream files through a bounded window, spooling to disk on every hop, instead of holding them in memory (default off)");
+		stream.println("- window: chunks. Chunks a streamed transfer keeps in flight per hop; use the same value on every Ringo (default " + DEFAULT_WINDOW + ")");
+		stream.println("- cutthrough: on/off. A FORWARDER passes each chunk of a streamed transfer on as soon as it has it, instead of after the whole file (default off)");
+		stream.println("- stripe: on/off. Split a streamed file in two halves sent both ways around the ring at once, so both links of every Ringo carry it; needs stream=on (default off)");
+		stream.println("- arq: gbn/sr. Go-back-N, or selective repeat with SACK ranges and fast retransmit of missing chunks; use the same value on every Ringo (default gbn)");
+		stream.println("- cc: none/aimd/cubic/bbr. Congestion control of DATA chunks per next hop, with releases paced over the RTT; none sends the whole window at once (default none)");
+		stream.println("- spool: directory. Where streamed transfers keep their chunks and progress, so they can resume after a restart (default the system temp directory)");
+	}
+
+	/**
+	 * @return true if file chunks should be compressed when the file compresses well
+	 */
+	public boolean isCompress() {
+		return compress;
+	}
+
+	/**
+	 * @return Configured DATA chunk size in bytes, or 0 to size chunks from the path MTU
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @return Socket implementation to use
+	 */
+	public Transport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * @return A new idle strategy of the configured kind, for one polling thread
+	 */
+	public IdleStrategy newIdleStrategy() {
+		return IdleStrategy.create(idle);
+	}
+
+	/**
+	 * @return true if files should be sent as streamed transfers
+	 */
+	public boolean isStream() {
+		return stream;
+	}
+
+	/**
+	 * @return Chunks a streamed transfer keeps in flight, and accepts ahead of the next missing one
+	 */
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * @return true if a FORWARDER should pass on streamed chunks as they arrive
+	 */
+	public boolean isCutThrough() {
+		return cutThrough;
+	}
+
+	/**
+	 * @return true if streamed files should be split between both directions around the ring
+	 */
+	public boolean isStripe() {
+		return stripe;
+	}
+
+	/**
+	 * @return How windows of DATA chunks are repaired
+	 */
+	public Arq getArq() {
+		return arq;
+	}
+
+	/**
+	 * @return A new congestion controller of the configured kind, for one next hop
+	 */
+	public CongestionController newCongestionController() {
+		return CongestionController.create(congestion);
+	}
+
+	/**
+	 * @return Directory for the spool and progress files of streamed transfers
+	 */
+	public File getSpoolDir() {
+		return spoolDir;
+	}
+
+	public String toString() {
+		return "compress=" + (compress ? "on" : "off")
+				+ " chunk=" + (chunkSize == 0 ? "auto" : Integer.toString(chunkSize))
+				+ " transport=" + transport.toString().toLowerCase()
+				+ " idle=" + idle.toString().toLowerCase()
+				+ " stream=" + (stream ? "on" : "off")
+				+ " window=" + window
+				+ " cutthrough=" + (cutThrough ? "on" : "off")
+				+ " stripe=" + (stripe ? "on" : "off")
+				+ " arq=" + arq.toString().toLowerCase()
+				+ " cc=" + congestion.toString().toLowerCase()
+				+ " spool=" + spoolDir;
+	}
+}
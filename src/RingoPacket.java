@@ -1,26 +1,22 @@
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.util.Hashtable;
+import java.util.zip.CRC32;
 import java.util.ArrayList;
 
 /**
  * All network communications on the Ringo protocol use
  * the RingoPacket class to store, send, and receive information.
- * This packet implements interface "Serializable" to allow
- * it to be byte-encoded and effectively stored in the data
- * buffer of a UDP/Datagram packet wrapper.
+ * Packets are byte-encoded by RingoPacketCodec to be stored in the
+ * data buffer of a UDP/Datagram packet wrapper.
  * 
  * All headers for a RingoPacket are specified as class fields.
  * 
  * @author sainaidu
  * @author andrewray
  */
-public class RingoPacket implements java.io.Serializable {
+public class RingoPacket {
 
-    public static final int MAX_PAYLOAD_SIZE = 512;
+    private static final ThreadLocal<CRC32> CRC = ThreadLocal.withInitial(CRC32::new);
 
     private String sourceIP;
     private int sourcePort;
@@ -31,77 +27,43 @@ public class RingoPacket implements java.io.Serializable {
     private PacketType type;
     private Role role;
     private Hashtable<String, Integer> lsa;
+    private int lsaBase;
+    private int lsaVersion;
+    private int lsaAck;
     private Hashtable<String, Integer> rttIndex;
     private Hashtable<Integer, String> indexRtt;
     private long [][] rtt;
     private long startTime;
     private long stopTime;
-    private byte[] payload = new byte[MAX_PAYLOAD_SIZE];
+    private ByteBuffer payload;
+    private int checksum;
+    private boolean compressed;
+    private int uncompressedLength;
+    private int chunkSize;
+    private long transferId;
+    private int[] sack;
     private ArrayList<String> route;
     private String fileName;
 	private boolean initskip;
 	private boolean received;
-    
-	/**
-	 * Serialization is the process of converting a Java object into
-	 * bytecode. This is necessary for us to send Java objects over
-	 * the network.
-	 * 
-	 * @param obj - serializable object (in this project, only RingoPacket)
-	 * @return byte [] - bytecode representation of the object
-	 */
-	public static byte [] serialize(Object obj) {
-		ByteArrayOutputStream bo = new ByteArrayOutputStream();
-		byte [] serializedObj = null;
-
-		try {
-			ObjectOutputStream so = new ObjectOutputStream(bo);
-			so.writeObject(obj);
-			so.flush();
-			serializedObj = bo.toByteArray();
-		} catch (IOException e) {
-			// handle later
-			e.printStackTrace();
-		}
-
-		return serializedObj;
-	}
+	private boolean streaming;
+	private boolean striped;
+	private boolean recyclable;
+	private long arrival;
     
-    /**
-	 * Deserialization is the process of converting a segment of
-	 * serialized bytecode into a valid Java object. This is the 
-	 * reverse of the serialization process.
-	 * 
-	 * @param b [] - bytecode representation of the object obj - 
-	 * @return RingoPacket - deserialized object (in this project, only RingoPacket)
-	 */
-	public static RingoPacket deserialize(byte [] b) {
-		RingoPacket obj = null;
-
-		ByteArrayInputStream bi = new ByteArrayInputStream(b);
-
-		try {
-			ObjectInputStream si = new ObjectInputStream(bi);
-			obj = (RingoPacket) si.readObject();
-		} catch (Exception e) {
-			// handle later
-			System.out.println("this exception: " +e);
-		}
-
-		return obj;
-	}
-
     /**
      * RingoPacket converts a raw UDP packet into one that can be
      * understood by the rest of the Ringo application.
      *
      * A DatagramPacket can tell us which Ringo (IP Address/Port pair)
      * directly sent us a packet, or what will directly receive the
-     * packet, but not any meta-information
-     * @param basepacket Raw UDP Packet with valid payload
+     * packet, but not any meta-information.
+     *
+     * Only the header is filled in here. Body sections (LSA, RTT, route,
+     * file name, payload) start out null and are only ever set on packet
+     * types that carry them, so control packets stay small.
      */
-    public RingoPacket(String sourceIP, int sourcePort, String destIP, int destPort, long seqLength, int seqNum, PacketType type, Role role, int ringSize) {
-        // TODO:
+    public RingoPacket(String sourceIP, int sourcePort, String destIP, int destPort, long seqLength, int seqNum, PacketType type, Role role) {
     		this.sourceIP = sourceIP;
     		this.sourcePort = sourcePort;
     		this.destIP = destIP;
@@ -110,15 +72,6 @@ public class RingoPacket implements java.io.Serializable {
     		this.sequenceNumber = seqNum;
     		this.type = type;
     		this.role = role;
-    		this.lsa = new Hashtable<String, Integer>();
-    		this.rtt = new long[ringSize][ringSize];
-    		for (int i = 0; i < ringSize; i++) {
-    			for (int j = 0; j < ringSize; j++) {
-    				this.rtt[i][j] = -1;
-    			}
-    		}
-    		this.rttIndex = new Hashtable<String, Integer>();
-    		this.indexRtt = new Hashtable<Integer, String>();
     }
 
     public String getSourceIP() {
@@ -161,6 +114,14 @@ public class RingoPacket implements java.io.Serializable {
         return sequenceNumber;
     }
 
+    public void setSequenceLength(long seqLength) {
+        this.sequenceLength = seqLength;
+    }
+
+    public void setSequenceNumber(int seqNum) {
+        this.sequenceNumber = seqNum;
+    }
+
     public PacketType getType() {
         return type;
     }
@@ -170,14 +131,43 @@ public class RingoPacket implements java.io.Serializable {
     }
 
     public void setLsa(Hashtable<String, Integer> lsa) {
+    		requireSection(PacketSection.LSA);
     		this.lsa = lsa;
     }
     
     public Hashtable<String, Integer> getLsa() {
     		return this.lsa;
     }
+
+    /**
+     * Sets the version window of the LSA entries on this packet. The entries
+     * are the sender's table changes after version base, up to version.
+     * A base of 0 means the packet carries the sender's full table.
+     * @param base highest version of the sender's table the receiver already acknowledged
+     * @param version sender's current table version
+     * @param ack highest version of the receiver's table the sender has seen without gaps
+     */
+    public void setLsaVersions(int base, int version, int ack) {
+    		requireSection(PacketSection.LSA);
+    		this.lsaBase = base;
+    		this.lsaVersion = version;
+    		this.lsaAck = ack;
+    }
+
+    public int getLsaBase() {
+    		return this.lsaBase;
+    }
+
+    public int getLsaVersion() {
+    		return this.lsaVersion;
+    }
+
+    public int getLsaAck() {
+    		return this.lsaAck;
+    }
     
     public void setRttIndex(Hashtable<String, Integer> rttIndex) {
+    		requireSection(PacketSection.RTT);
     		this.rttIndex = rttIndex;
     }
     
@@ -186,6 +176,7 @@ public class RingoPacket implements java.io.Serializable {
     }
     
     public void setIndexRtt(Hashtable<Integer, String> indexRtt) {
+		requireSection(PacketSection.RTT);
 		this.indexRtt = indexRtt;
 	}
 	
@@ -194,6 +185,7 @@ public class RingoPacket implements java.io.Serializable {
 	}
     
     public void setRtt(long [][] rtt) {
+		requireSection(PacketSection.RTT);
 		this.rtt = rtt;
 	}
 	
@@ -217,19 +209,125 @@ public class RingoPacket implements java.io.Serializable {
 		return this.stopTime;
 	}
 
-	public void setPayload(byte [] payload) {
+	/**
+	 * The payload is kept as a view, not a copy: a slice of the received
+	 * datagram, or of the mapped source file on the sender. Its position
+	 * and limit frame the chunk and must not be changed; read it through
+	 * duplicate().
+	 * @param payload chunk of file contents
+	 */
+	public void setPayload(ByteBuffer payload) {
+		requireSection(PacketSection.PAYLOAD);
 		this.payload = payload;
 	}
 	
-    public byte[] getPayload() {
+    public ByteBuffer getPayload() {
         return payload;
     }
+
+    /**
+     * Stamps the payload with its CRC. Only the Ringo that creates a chunk
+     * does this; forwarders pass the original checksum along, so the check
+     * is end-to-end.
+     */
+    public void sealPayload() {
+    		requireSection(PacketSection.PAYLOAD);
+    		this.checksum = crc(this.payload);
+    }
+
+    /**
+     * @return true if the payload still matches the checksum it was sealed with
+     */
+    public boolean isPayloadIntact() {
+    		return this.payload != null && crc(this.payload) == this.checksum;
+    }
+
+    /**
+     * Marks the payload as a deflated chunk. Forwarders pass it on as-is,
+     * only the RECEIVER inflates it.
+     * @param uncompressedLength length of the chunk before compression
+     */
+    public void setCompressed(int uncompressedLength) {
+    		requireSection(PacketSection.PAYLOAD);
+    		this.compressed = true;
+    		this.uncompressedLength = uncompressedLength;
+    }
+
+    public boolean isCompressed() {
+    		return this.compressed;
+    }
+
+    public int getUncompressedLength() {
+    		return this.uncompressedLength;
+    }
+
+    /**
+     * @param chunkSize size every chunk of the transfer except the last one was cut to,
+     *        so the receiver can place this chunk at sequenceNumber * chunkSize
+     */
+    public void setChunkSize(int chunkSize) {
+    		requireSection(PacketSection.PAYLOAD);
+    		this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+    		return this.chunkSize;
+    }
+
+    public int getChecksum() {
+    		return this.checksum;
+    }
+
+    public void setChecksum(int checksum) {
+    		requireSection(PacketSection.PAYLOAD);
+    		this.checksum = checksum;
+    }
+
+    private static int crc(ByteBuffer data) {
+    		CRC32 crc = CRC.get();
+    		crc.reset();
+    		crc.update(data.duplicate());
+    		return (int) crc.getValue();
+    }
     
+    /**
+     * @param transferId id the sender gave the transfer, the same every time it sends the same file
+     */
+    public void setTransferId(long transferId) {
+    		requireSection(PacketSection.TRANSFER);
+    		this.transferId = transferId;
+    }
+
+    /**
+     * @return id of the transfer this packet belongs to, 0 if none
+     */
+    public long getTransferId() {
+    		return this.transferId;
+    }
+
+    /**
+     * Chunks a DATA_ACK reports as received beyond its cumulative ack, for
+     * selective repeat (see RingoConfig's arq option)
+     * @param sack start, end pairs of sequence number ranges, each end exclusive
+     */
+    public void setSack(int[] sack) {
+    		requireSection(PacketSection.SACK);
+    		this.sack = sack;
+    }
+
+    /**
+     * @return start, end pairs of the ranges received beyond the cumulative ack, or null if none were reported
+     */
+    public int[] getSack() {
+    		return this.sack;
+    }
+
     public ArrayList<String> getRoute() {
     		return this.route;
     }
     
     public void setRoute(ArrayList<String> route) {
+		requireSection(PacketSection.ROUTE);
 		this.route = route;
     }
     
@@ -238,6 +336,7 @@ public class RingoPacket implements java.io.Serializable {
     }
     
     public void setFileName(String fileName) {
+    		requireSection(PacketSection.FILE_NAME);
     		this.fileName = fileName;
     }
     
@@ -248,6 +347,34 @@ public class RingoPacket implements java.io.Serializable {
     public boolean getReceived() {
     		return this.received;
     }
+
+    /**
+     * Marks a DATA packet as part of a streamed transfer, which every Ringo
+     * on the route passes through a bounded window instead of holding the
+     * whole file (see RingoConfig's stream option).
+     * @param streaming true if the transfer is streamed
+     */
+    public void setStreaming(boolean streaming) {
+    		this.streaming = streaming;
+    }
+
+    public boolean isStreaming() {
+    		return this.streaming;
+    }
+
+    /**
+     * Marks a streamed DATA packet as part of one of the two stripes a file is
+     * split into, one sent each way around the ring (see RingoConfig's stripe
+     * option). The stripe is told by the low bit of the transfer id.
+     * @param striped true if the transfer is one stripe of a file
+     */
+    public void setStriped(boolean striped) {
+    		this.striped = striped;
+    }
+
+    public boolean isStriped() {
+    		return this.striped;
+    }
     
     public boolean equals(Object other) {
     		if (other instanceof RingoPacket) {
@@ -268,13 +395,64 @@ public class RingoPacket implements java.io.Serializable {
     		this.type = packet.getType();
     		this.role = packet.getRole();
     		this.lsa = packet.getLsa();
+    		this.lsaBase = packet.getLsaBase();
+    		this.lsaVersion = packet.getLsaVersion();
+    		this.lsaAck = packet.getLsaAck();
     		this.rtt = packet.getRtt();
     		this.rttIndex = packet.getRttIndex();
     		this.indexRtt = packet.getIndexRtt();
     		this.startTime = packet.getStartTime();
     		this.stopTime = packet.getStopTime();
     		this.payload = packet.getPayload();
+    		this.checksum = packet.getChecksum();
+    		this.compressed = packet.isCompressed();
+    		this.uncompressedLength = packet.getUncompressedLength();
+    		this.chunkSize = packet.getChunkSize();
+    		this.transferId = packet.getTransferId();
+    		this.sack = packet.getSack();
+    		this.route = packet.getRoute();
+    		this.fileName = packet.getFileName();
     		this.initskip = packet.getInitSkip();
+    		this.received = packet.getReceived();
+    		this.streaming = packet.isStreaming();
+    		this.striped = packet.isStriped();
+    }
+
+    /**
+     * Re-initializes a recycled packet with a new header, and clears every
+     * body section, timestamp and flag.
+     */
+    public void reset(String sourceIP, int sourcePort, String destIP, int destPort, long seqLength, int seqNum, PacketType type, Role role) {
+    		this.sourceIP = sourceIP;
+    		this.sourcePort = sourcePort;
+    		this.destIP = destIP;
+    		this.destPort = destPort;
+    		this.sequenceLength = seqLength;
+    		this.sequenceNumber = seqNum;
+    		this.type = type;
+    		this.role = role;
+    		this.lsa = null;
+    		this.lsaBase = 0;
+    		this.lsaVersion = 0;
+    		this.lsaAck = 0;
+    		this.rtt = null;
+    		this.rttIndex = null;
+    		this.indexRtt = null;
+    		this.startTime = 0;
+    		this.stopTime = 0;
+    		this.payload = null;
+    		this.checksum = 0;
+    		this.compressed = false;
+    		this.uncompressedLength = 0;
+    		this.chunkSize = 0;
+    		this.transferId = 0;
+    		this.sack = null;
+    		this.route = null;
+    		this.fileName = null;
+    		this.initskip = false;
+    		this.received = false;
+    		this.streaming = false;
+    		this.striped = false;
     }
     
     public String toString() {
@@ -288,4 +466,41 @@ public class RingoPacket implements java.io.Serializable {
 	public void setInitSkip(boolean skip) {
 		this.initskip = skip;
 	}
+
+	/**
+	 * @return true if this packet came from a RingoPacketFactory pool and should be released to it when done
+	 */
+	public boolean isRecyclable() {
+		return this.recyclable;
+	}
+
+	public void setRecyclable(boolean recyclable) {
+		this.recyclable = recyclable;
+	}
+
+	/**
+	 * @return Position of this packet in the order packets were filed into a PacketMailbox
+	 */
+	public long getArrival() {
+		return this.arrival;
+	}
+
+	/**
+	 * Set by PacketMailbox when the packet is filed. Not sent, and not copied
+	 * by replace(), so a packet refreshed by a retransmission keeps its place.
+	 * @param arrival Position in the mailbox's arrival order
+	 */
+	public void setArrival(long arrival) {
+		this.arrival = arrival;
+	}
+
+	/**
+	 * Body sections are only allocated for the packet types that use them.
+	 * @param section section about to be set
+	 * @throws IllegalStateException if this packet's type doesn't carry the section
+	 */
+	private void requireSection(PacketSection section) {
+		if (!this.type.carries(section))
+			throw new IllegalStateException(this.type + " packets do not carry a " + section + " section");
+	}
 }
\ No newline at end of file
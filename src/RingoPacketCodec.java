@@ -0,0 +1,518 @@
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Map;
+
+/**
+ * Hand-written binary wire format for RingoPackets.
+ *
+ * Every datagram starts with a fixed header (magic, version, type, role,
+ * flags, sequence fields, timestamps and both endpoints), followed by the
+ * optional sections flagged in the header. A section that is not present
+ * costs nothing on the wire.
+ *
+ * Layout (big-endian):
+ *   magic(2) version(1) type(1) role(1) flags(1) sections(1)
+ *   seqNum(4) seqLength(8) startTime(8) stopTime(8)
+ *   srcIP(str) srcPort(2) dstIP(str) dstPort(2)
+ *   [LSA] [RTT] [ROUTE] [FILE_NAME] [PAYLOAD] [TRANSFER] [SACK]
+ *
+ * The LSA section is base(4) version(4) ack(4) count(2) then the entries,
+ * so a delta update costs only the entries that changed.
+ *
+ * The PAYLOAD section is checksum(4) length(4) chunkSize(4) then the
+ * bytes; the checksum is the CRC32 stamped by the Ringo that created the
+ * chunk, and chunkSize is what the sender cut the whole file into.
+ * A compressed payload has uncompressedLength(4) before its bytes.
+ *
+ * The TRANSFER section is the transferId(8) of the DATA packets and acks
+ * of a file transfer; it is left out while the id is 0.
+ *
+ * The SACK section of a DATA_ACK is count(1) then count ranges of chunks
+ * received beyond the cumulative ack, each start(4) end(4), end exclusive.
+ *
+ * The RTT section holds the index table once (index to "ip:port"; the
+ * reverse lookup is rebuilt on decode), then the matrix dimensions and
+ * its values as zig-zag varints. A symmetric matrix only sends its upper
+ * triangle.
+ *
+ * Strings are a 2-byte length followed by UTF-8 bytes.
+ *
+ * Packets are self-delimiting, so one datagram may carry several of them
+ * back to back (see PacketCoalescer). Decoding moves the buffer past one
+ * packet, and the next one starts right there.
+ */
+public final class RingoPacketCodec {
+
+	/** Largest payload a single UDP datagram can carry */
+	public static final int MAX_DATAGRAM_SIZE = 65507;
+
+	/** IPv4 and UDP headers in front of every datagram, which count against the MTU */
+	public static final int IP_UDP_OVERHEAD = 28;
+
+	public static final short MAGIC = 0x5247; // "RG"
+	public static final byte VERSION = 11;
+
+	// header flags
+	private static final int FLAG_INIT_SKIP = 0x01;
+	private static final int FLAG_RECEIVED = 0x02;
+	private static final int FLAG_COMPRESSED = 0x04;
+	private static final int FLAG_STREAMING = 0x08;
+	private static final int FLAG_STRIPED = 0x10;
+
+	// optional sections
+	private static final int SECTION_LSA = 0x01;
+	private static final int SECTION_RTT = 0x02;
+	private static final int SECTION_ROUTE = 0x04;
+	private static final int SECTION_FILE_NAME = 0x08;
+	private static final int SECTION_PAYLOAD = 0x10;
+	private static final int SECTION_TRANSFER = 0x20;
+	private static final int SECTION_SACK = 0x40;
+
+	// RTT section flags
+	private static final int RTT_SYMMETRIC = 0x01;
+
+	private static final PacketType[] TYPES = PacketType.values();
+	private static final Role[] ROLES = Role.values();
+
+	private RingoPacketCodec() {
+	}
+
+	/**
+	 * Encodes a packet into a freshly allocated array.
+	 *
+	 * @param packet packet to encode
+	 * @return wire representation of the packet
+	 */
+	public static byte[] encode(RingoPacket packet) {
+		ByteBuffer out = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+		encode(packet, out);
+		byte[] encoded = new byte[out.position()];
+		System.arraycopy(out.array(), 0, encoded, 0, encoded.length);
+		return encoded;
+	}
+
+	/**
+	 * Encodes a packet into the given buffer, starting at its current position.
+	 * On return the buffer's position is just past the encoded packet.
+	 *
+	 * @param packet packet to encode
+	 * @param out destination buffer, should have MAX_DATAGRAM_SIZE bytes remaining
+	 * @throws java.nio.BufferOverflowException if the packet doesn't fit into one datagram
+	 */
+	public static void encode(RingoPacket packet, ByteBuffer out) {
+		int flags = 0;
+		if (packet.getInitSkip())
+			flags |= FLAG_INIT_SKIP;
+		if (packet.getReceived())
+			flags |= FLAG_RECEIVED;
+		if (packet.isCompressed())
+			flags |= FLAG_COMPRESSED;
+		if (packet.isStreaming())
+			flags |= FLAG_STREAMING;
+		if (packet.isStriped())
+			flags |= FLAG_STRIPED;
+
+		int sections = 0;
+		if (packet.getLsa() != null)
+			sections |= SECTION_LSA;
+		if (packet.getRtt() != null)
+			sections |= SECTION_RTT;
+		if (packet.getRoute() != null)
+			sections |= SECTION_ROUTE;
+		if (packet.getFileName() != null)
+			sections |= SECTION_FILE_NAME;
+		if (packet.getPayload() != null)
+			sections |= SECTION_PAYLOAD;
+		if (packet.getTransferId() != 0)
+			sections |= SECTION_TRANSFER;
+		if (packet.getSack() != null)
+			sections |= SECTION_SACK;
+
+		out.putShort(MAGIC);
+		out.put(VERSION);
+		out.put((byte) packet.getType().ordinal());
+		out.put((byte) packet.getRole().ordinal());
+		out.put((byte) flags);
+		out.put((byte) sections);
+		out.putInt(packet.getSequenceNumber());
+		out.putLong(packet.getSequenceLength());
+		out.putLong(packet.getStartTime());
+		out.putLong(packet.getStopTime());
+		putString(out, packet.getSourceIP());
+		out.putShort((short) packet.getSourcePort());
+		putString(out, packet.getDestIP());
+		out.putShort((short) packet.getDestPort());
+
+		if ((sections & SECTION_LSA) != 0) {
+			Hashtable<String, Integer> lsa = packet.getLsa();
+			out.putInt(packet.getLsaBase());
+			out.putInt(packet.getLsaVersion());
+			out.putInt(packet.getLsaAck());
+			// Hashtables are shared with Ringo, hold the lock to iterate them safely
+			synchronized (lsa) {
+				out.putShort((short) lsa.size());
+				for (Map.Entry<String, Integer> entry : lsa.entrySet()) {
+					putString(out, entry.getKey());
+					out.putInt(entry.getValue());
+				}
+			}
+		}
+
+		if ((sections & SECTION_RTT) != 0) {
+			putRtt(out, packet.getIndexRtt(), packet.getRtt());
+		}
+
+		if ((sections & SECTION_ROUTE) != 0) {
+			ArrayList<String> route = packet.getRoute();
+			out.putShort((short) route.size());
+			for (String hop : route) {
+				putString(out, hop);
+			}
+		}
+
+		if ((sections & SECTION_FILE_NAME) != 0) {
+			putString(out, packet.getFileName());
+		}
+
+		if ((sections & SECTION_PAYLOAD) != 0) {
+			ByteBuffer payload = packet.getPayload();
+			out.putInt(packet.getChecksum());
+			out.putInt(payload.remaining());
+			out.putInt(packet.getChunkSize());
+			if (packet.isCompressed())
+				out.putInt(packet.getUncompressedLength());
+			out.put(payload.duplicate());
+		}
+
+		if ((sections & SECTION_TRANSFER) != 0) {
+			out.putLong(packet.getTransferId());
+		}
+
+		if ((sections & SECTION_SACK) != 0) {
+			int[] sack = packet.getSack();
+			out.put((byte) (sack.length / 2));
+			for (int i = 0; i < sack.length; i++) {
+				out.putInt(sack[i]);
+			}
+		}
+	}
+
+	/**
+	 * Decodes a packet from a received datagram.
+	 *
+	 * @param data buffer holding the datagram
+	 * @param offset start of the datagram in data
+	 * @param length length of the datagram
+	 * @return the decoded packet
+	 * @throws IllegalArgumentException if the datagram isn't a RingoPacket of a known version,
+	 *         or is truncated
+	 */
+	public static RingoPacket decode(byte[] data, int offset, int length) {
+		return decode(data, offset, length, null);
+	}
+
+	/**
+	 * Decodes a packet from a received datagram into an existing packet,
+	 * e.g. one taken from a RingoPacketFactory pool.
+	 *
+	 * A decoded payload is a view into data, so the caller must not reuse
+	 * that region of data while the packet is alive.
+	 *
+	 * @param data buffer holding the datagram
+	 * @param offset start of the datagram in data
+	 * @param length length of the datagram
+	 * @param into packet to overwrite, or null to allocate a new one
+	 * @return the decoded packet
+	 * @throws IllegalArgumentException if the datagram isn't a RingoPacket of a known version,
+	 *         or is truncated
+	 */
+	public static RingoPacket decode(byte[] data, int offset, int length, RingoPacket into) {
+		return decode(ByteBuffer.wrap(data, offset, length), into);
+	}
+
+	/**
+	 * Decodes a packet from the remaining bytes of a buffer, e.g. a slice of a
+	 * direct receive buffer. The buffer's position is moved past the packet.
+	 *
+	 * A decoded payload is a view into the buffer, so the caller must not reuse
+	 * that region while the packet is alive.
+	 *
+	 * @param datagram buffer holding the datagram between its position and limit
+	 * @param into packet to overwrite, or null to allocate a new one
+	 * @return the decoded packet
+	 * @throws IllegalArgumentException if the datagram isn't a RingoPacket of a known version,
+	 *         or is truncated
+	 */
+	public static RingoPacket decode(ByteBuffer datagram, RingoPacket into) {
+		return decode(datagram, into, null);
+	}
+
+	/**
+	 * Decodes the next packet of a datagram into a reusable packet, taking
+	 * the endpoint hostnames from a registry so a known host isn't decoded
+	 * into a new String.
+	 *
+	 * @param datagram buffer holding the datagram between its position and limit
+	 * @param into packet to overwrite, or null to allocate a new one
+	 * @param peers registry the Ringo interns its endpoints in, or null
+	 * @return the decoded packet
+	 * @throws IllegalArgumentException if the datagram isn't a RingoPacket of a known version,
+	 *         or is truncated
+	 */
+	public static RingoPacket decode(ByteBuffer datagram, RingoPacket into, PeerRegistry peers) {
+		try {
+			return decodePacket(datagram, into, peers);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Truncated RingoPacket", e);
+		}
+	}
+
+	private static RingoPacket decodePacket(ByteBuffer in, RingoPacket into, PeerRegistry peers) {
+		if (in.getShort() != MAGIC)
+			throw new IllegalArgumentException("Not a RingoPacket");
+
+		byte version = in.get();
+		if (version != VERSION)
+			throw new IllegalArgumentException("Unsupported RingoPacket version " + version);
+
+		PacketType type = TYPES[in.get()];
+		Role role = ROLES[in.get()];
+		int flags = in.get();
+		int sections = in.get();
+		int seqNum = in.getInt();
+		long seqLength = in.getLong();
+		long startTime = in.getLong();
+		long stopTime = in.getLong();
+		String sourceIP = getHost(in, peers);
+		int sourcePort = in.getShort() & 0xFFFF;
+		String destIP = getHost(in, peers);
+		int destPort = in.getShort() & 0xFFFF;
+
+		RingoPacket packet = into;
+		if (packet == null) {
+			packet = new RingoPacket(sourceIP, sourcePort, destIP, destPort, seqLength, seqNum, type, role);
+		} else {
+			packet.reset(sourceIP, sourcePort, destIP, destPort, seqLength, seqNum, type, role);
+		}
+		packet.setStartTime(startTime);
+		packet.setStopTime(stopTime);
+		packet.setInitSkip((flags & FLAG_INIT_SKIP) != 0);
+		packet.setReceived((flags & FLAG_RECEIVED) != 0);
+		packet.setStreaming((flags & FLAG_STREAMING) != 0);
+		packet.setStriped((flags & FLAG_STRIPED) != 0);
+
+		if ((sections & SECTION_LSA) != 0) {
+			int base = in.getInt();
+			int lsaVersion = in.getInt();
+			int ack = in.getInt();
+			int size = in.getShort() & 0xFFFF;
+			Hashtable<String, Integer> lsa = new Hashtable<String, Integer>();
+			for (int i = 0; i < size; i++) {
+				String key = getString(in);
+				lsa.put(key, in.getInt());
+			}
+			packet.setLsa(lsa);
+			packet.setLsaVersions(base, lsaVersion, ack);
+		}
+
+		if ((sections & SECTION_RTT) != 0) {
+			getRtt(in, packet);
+		}
+
+		if ((sections & SECTION_ROUTE) != 0) {
+			int size = in.getShort() & 0xFFFF;
+			ArrayList<String> route = new ArrayList<String>(size);
+			for (int i = 0; i < size; i++) {
+				route.add(getString(in));
+			}
+			packet.setRoute(route);
+		}
+
+		if ((sections & SECTION_FILE_NAME) != 0) {
+			packet.setFileName(getString(in));
+		}
+
+		if ((sections & SECTION_PAYLOAD) != 0) {
+			// zero-copy: the payload stays a view into the datagram buffer
+			int checksum = in.getInt();
+			int size = in.getInt();
+			int chunkSize = in.getInt();
+			int uncompressedLength = ((flags & FLAG_COMPRESSED) != 0) ? in.getInt() : 0;
+			ByteBuffer payload = in.slice();
+			payload.limit(size);
+			in.position(in.position() + size);
+			packet.setPayload(payload);
+			packet.setChecksum(checksum);
+			packet.setChunkSize(chunkSize);
+			if ((flags & FLAG_COMPRESSED) != 0)
+				packet.setCompressed(uncompressedLength);
+		}
+
+		if ((sections & SECTION_TRANSFER) != 0) {
+			packet.setTransferId(in.getLong());
+		}
+
+		if ((sections & SECTION_SACK) != 0) {
+			int[] sack = new int[(in.get() & 0xFF) * 2];
+			for (int i = 0; i < sack.length; i++) {
+				sack[i] = in.getInt();
+			}
+			packet.setSack(sack);
+		}
+
+		return packet;
+	}
+
+	/**
+	 * Writes the index table and RTT matrix of an RTT section.
+	 */
+	private static void putRtt(ByteBuffer out, Hashtable<Integer, String> indexRtt, long[][] rtt) {
+		if (indexRtt == null) {
+			putVarint(out, 0);
+		} else {
+			synchronized (indexRtt) {
+				putVarint(out, indexRtt.size());
+				for (Map.Entry<Integer, String> entry : indexRtt.entrySet()) {
+					putVarint(out, entry.getKey());
+					putString(out, entry.getValue());
+				}
+			}
+		}
+
+		int rows = rtt.length;
+		int cols = (rows > 0) ? rtt[0].length : 0;
+		boolean symmetric = isSymmetric(rtt, rows, cols);
+		out.put((byte) (symmetric ? RTT_SYMMETRIC : 0));
+		putVarint(out, rows);
+		putVarint(out, cols);
+		for (int i = 0; i < rows; i++) {
+			for (int j = symmetric ? i : 0; j < cols; j++) {
+				putVarint(out, zigZag(rtt[i][j]));
+			}
+		}
+	}
+
+	/**
+	 * Reads an RTT section into the packet, rebuilding both index lookups.
+	 */
+	private static void getRtt(ByteBuffer in, RingoPacket packet) {
+		long size = getVarint(in);
+		// every entry takes at least a byte of index and two of string length
+		if (size < 0 || size > in.remaining() / 3) {
+			throw new IllegalArgumentException("Malformed RTT index of " + size + " entries");
+		}
+		Hashtable<String, Integer> rttIndex = new Hashtable<String, Integer>();
+		Hashtable<Integer, String> indexRtt = new Hashtable<Integer, String>();
+		for (int i = 0; i < size; i++) {
+			int index = (int) getVarint(in);
+			String key = getString(in);
+			indexRtt.put(index, key);
+			rttIndex.put(key, index);
+		}
+
+		boolean symmetric = (in.get() & RTT_SYMMETRIC) != 0;
+		long rows = getVarint(in);
+		long cols = getVarint(in);
+		// every value takes at least a byte, so a corrupt size can't make us allocate more than the datagram holds
+		long cells = symmetric ? rows * (rows + 1) / 2 : rows * cols;
+		if (rows < 0 || cols < 0 || rows > in.remaining() || cols > in.remaining() || cells > in.remaining()
+				|| (symmetric && rows != cols) || ((rows == 0) != (cols == 0))) {
+			throw new IllegalArgumentException("Malformed RTT matrix of " + rows + "x" + cols);
+		}
+		long[][] rtt = new long[(int) rows][(int) cols];
+		for (int i = 0; i < rows; i++) {
+			for (int j = symmetric ? i : 0; j < cols; j++) {
+				rtt[i][j] = unZigZag(getVarint(in));
+				if (symmetric) {
+					rtt[j][i] = rtt[i][j];
+				}
+			}
+		}
+
+		packet.setRttIndex(rttIndex);
+		packet.setIndexRtt(indexRtt);
+		packet.setRtt(rtt);
+	}
+
+	private static boolean isSymmetric(long[][] rtt, int rows, int cols) {
+		if (rows != cols)
+			return false;
+
+		for (int i = 0; i < rows; i++) {
+			for (int j = i + 1; j < cols; j++) {
+				if (rtt[i][j] != rtt[j][i])
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes an unsigned LEB128 varint: 7 bits per byte, high bit set on all but the last byte.
+	 */
+	private static void putVarint(ByteBuffer out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	private static long getVarint(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	/**
+	 * Maps signed values to unsigned ones so small negatives (the -1 "unknown" RTT) stay one byte.
+	 */
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void putString(ByteBuffer out, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.putShort((short) bytes.length);
+		out.put(bytes);
+	}
+
+	private static String getHost(ByteBuffer in, PeerRegistry peers) {
+		if (peers == null)
+			return getString(in);
+
+		int start = in.position();
+		int length = in.getShort() & 0xFFFF;
+		String host = (length <= in.remaining()) ? peers.findHost(in, length) : null;
+		if (host == null) {
+			in.position(start);
+			return getString(in);
+		}
+		in.position(in.position() + length);
+		return host;
+	}
+
+	private static String getString(ByteBuffer in) {
+		int length = in.getShort() & 0xFFFF;
+		if (!in.hasArray()) {
+			byte[] bytes = new byte[length];
+			in.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+		String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+		in.position(in.position() + length);
+		return s;
+	}
+}
@@ -0,0 +1,187 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.Random;
+
+/**
+ * Checks the compact RTT encoding of RingoPacketCodec: round-trips symmetric
+ * and asymmetric matrices of N = 8, 32 and 128 Ringos, prints their sizes
+ * next to Java serialization of the same matrix and index table, and makes
+ * sure a corrupt RTT section is rejected instead of allocated.
+ *
+ * Run with: java RingoPacketCodecCheck
+ * Exits with status 1 if any check fails.
+ */
+public class RingoPacketCodecCheck {
+	private static final int[] SIZES = { 8, 32, 128 };
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException {
+		Random random = new Random(4);
+
+		System.out.println(String.format("%5s %20s %12s %12s", "N", "Java serialization", "asymmetric", "symmetric"));
+		for (int n : SIZES) {
+			long[][] asymmetric = matrix(n, random, false);
+			long[][] symmetric = matrix(n, random, true);
+			Hashtable<Integer, String> indexRtt = index(n);
+
+			int asymmetricSize = roundTrip(indexRtt, asymmetric);
+			int symmetricSize = roundTrip(indexRtt, symmetric);
+			System.out.println(String.format("%5d %18d B %10d B %10d B", n, serialized(indexRtt, asymmetric), asymmetricSize, symmetricSize));
+		}
+
+		// edge values survive the zig-zag varints
+		long[][] edges = matrix(8, random, false);
+		edges[0][1] = -1;
+		edges[1][0] = Long.MIN_VALUE;
+		edges[2][3] = Long.MAX_VALUE;
+		roundTrip(index(8), edges);
+
+		rejectsCorrupt();
+
+		if (failures > 0) {
+			System.out.println(failures + " check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+	}
+
+	/**
+	 * Encodes an RTT_RES with the matrix, decodes it again and compares
+	 * @param indexRtt Index table
+	 * @param rtt Matrix
+	 * @return Size of the encoded packet
+	 */
+	private static int roundTrip(Hashtable<Integer, String> indexRtt, long[][] rtt) {
+		byte[] encoded = RingoPacketCodec.encode(packet(indexRtt, rtt));
+		RingoPacket decoded = RingoPacketCodec.decode(encoded, 0, encoded.length);
+
+		check(Arrays.deepEquals(rtt, decoded.getRtt()), "matrix of " + rtt.length + " differs after a round trip");
+		check(indexRtt.equals(decoded.getIndexRtt()), "index table of " + rtt.length + " differs after a round trip");
+		for (Integer index : indexRtt.keySet()) {
+			check(index.equals(decoded.getRttIndex().get(indexRtt.get(index))), "rttIndex of " + rtt.length + " isn't rebuilt");
+		}
+		return encoded.length;
+	}
+
+	/**
+	 * Grows the matrix size of an encoded packet far past what the datagram
+	 * holds, and expects decode to refuse it
+	 */
+	private static void rejectsCorrupt() {
+		long[][] rtt = matrix(8, new Random(1), false);
+		byte[] encoded = RingoPacketCodec.encode(packet(index(8), rtt));
+
+		// rows and cols are one byte varints of 8 each; no byte of the header or of the index table is 8
+		int at = -1;
+		for (int i = 0; i + 1 < encoded.length; i++) {
+			if (encoded[i] == 8 && encoded[i + 1] == 8) {
+				at = i;
+				break;
+			}
+		}
+		check(at >= 0, "couldn't find the matrix size in the encoded packet");
+		if (at < 0) {
+			return;
+		}
+
+		// 0xFF 0xFF 0xFF 0x07 is 2^24 - 1 rows, spliced in place of the one byte 8
+		byte[] corrupt = new byte[encoded.length + 3];
+		System.arraycopy(encoded, 0, corrupt, 0, at);
+		corrupt[at] = (byte) 0xFF;
+		corrupt[at + 1] = (byte) 0xFF;
+		corrupt[at + 2] = (byte) 0xFF;
+		corrupt[at + 3] = (byte) 0x07;
+		System.arraycopy(encoded, at + 1, corrupt, at + 4, encoded.length - at - 1);
+
+		try {
+			RingoPacketCodec.decode(corrupt, 0, corrupt.length);
+			check(false, "a corrupt matrix size was accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		RingoPacket decoded = RingoPacketCodec.decode(encoded, 0, encoded.length);
+		check(Arrays.deepEquals(rtt, decoded.getRtt()), "the uncorrupted packet no longer decodes");
+	}
+
+	/**
+	 * @param indexRtt Index table
+	 * @param rtt Matrix
+	 * @return An RTT_RES carrying them
+	 */
+	private static RingoPacket packet(Hashtable<Integer, String> indexRtt, long[][] rtt) {
+		RingoPacket packet = new RingoPacket("127.0.0.1", 5001, "127.0.0.1", 5002, 0, 0, PacketType.RTT_RES, Role.FORWARDER);
+		Hashtable<String, Integer> rttIndex = new Hashtable<String, Integer>();
+		for (Integer index : indexRtt.keySet()) {
+			rttIndex.put(indexRtt.get(index), index);
+		}
+		packet.setRttIndex(rttIndex);
+		packet.setIndexRtt(indexRtt);
+		packet.setRtt(rtt);
+		return packet;
+	}
+
+	/**
+	 * @param n Ringos in the ring
+	 * @param random Source of RTTs
+	 * @param symmetric true to make rtt[i][j] == rtt[j][i]
+	 * @return Matrix of 1-120 ms RTTs, with 0 on the diagonal
+	 */
+	private static long[][] matrix(int n, Random random, boolean symmetric) {
+		long[][] rtt = new long[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (i == j) {
+					rtt[i][j] = 0;
+				} else if (symmetric && j < i) {
+					rtt[i][j] = rtt[j][i];
+				} else {
+					rtt[i][j] = 1 + random.nextInt(120);
+				}
+			}
+		}
+		return rtt;
+	}
+
+	/**
+	 * @param n Ringos in the ring
+	 * @return Index table of n Ringos on consecutive ports
+	 */
+	private static Hashtable<Integer, String> index(int n) {
+		Hashtable<Integer, String> indexRtt = new Hashtable<Integer, String>();
+		for (int i = 0; i < n; i++) {
+			indexRtt.put(i, "10.0." + (i / 256) + "." + (i % 256) + ":" + (5000 + i));
+		}
+		return indexRtt;
+	}
+
+	/**
+	 * @param indexRtt Index table
+	 * @param rtt Matrix
+	 * @return Bytes Java serialization takes for both, the way RTT sections used to be sent
+	 * @throws IOException never, the stream is in memory
+	 */
+	private static int serialized(Hashtable<Integer, String> indexRtt, long[][] rtt) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(indexRtt);
+		out.writeObject(rtt);
+		out.close();
+		return bytes.size();
+	}
+
+	/**
+	 * @param ok Outcome of a check
+	 * @param message What went wrong if it failed
+	 */
+	private static void check(boolean ok, String message) {
+		if (!ok) {
+			System.out.println("FAILED: " + message);
+			failures++;
+		}
+	}
+}
@@ -1,10 +1,14 @@
+import java.util.EnumMap;
 
-//  public RingoPacket(String sourceIP, int sourcePort, String destIP, int destPort, int packetLength, int seqNum, PacketType type, Role role, int ringSize)
+//  public RingoPacket(String sourceIP, int sourcePort, String destIP, int destPort, long seqLength, int seqNum, PacketType type, Role role)
 public class RingoPacketFactory {
+	public static final int PACKET_POOL_SIZE = 256;
+
 	private String sourceIP;
 	private int sourcePort;
 	private Role myRole;
-	private int ringSize;
+	private BoundedPool<RingoPacket> pool;
+	private EnumMap<PacketType, RingoPacket> templates;
 	
 	/**
 	 * Class responsible for filling in the parameters of RingoPacket that are kept
@@ -12,20 +16,77 @@ public class RingoPacketFactory {
 	 * 
 	 * This is meant to save you parameters when sending packets.
 	 * 
+	 * It also keeps a pool of recyclable packets and pre-built templates for
+	 * the packets we send most often (PING_RES, RTT_RES, INIT_RES, KEEPALIVE, DATA_ACK, DATA_NACK),
+	 * so answering those doesn't allocate once the pool is warm.
+	 * 
 	 * @param myIP IP Address of this Ringo
 	 * @param myPort Port of this Ringo
 	 * @param myRole Role of this Ringo
-	 * @param ringSize 
 	 */
-	public RingoPacketFactory(String myIP, int myPort, Role myRole, int ringSize) {
+	public RingoPacketFactory(String myIP, int myPort, Role myRole) {
 		this.sourceIP = myIP;
 		this.sourcePort = myPort;
 		this.myRole = myRole;
-		this.ringSize = ringSize;
+		this.pool = new BoundedPool<RingoPacket>(PACKET_POOL_SIZE, () -> new RingoPacket(null, 0, null, 0, 0, 0, PacketType.KEEPALIVE, myRole));
+		this.templates = new EnumMap<PacketType, RingoPacket>(PacketType.class);
+		
+		PacketType[] templated = { PacketType.PING_RES, PacketType.RTT_RES, PacketType.INIT_RES, PacketType.KEEPALIVE, PacketType.DATA_ACK, PacketType.DATA_NACK };
+		for (PacketType type : templated) {
+			templates.put(type, new RingoPacket(sourceIP, sourcePort, null, 0, 0, 0, type, myRole));
+		}
 	}
 	
 	public RingoPacket makePacket(String destIP, int destPort, int packetLength, int seqNum, PacketType type) {
-		return new RingoPacket(sourceIP, sourcePort, destIP, destPort, packetLength, seqNum, type, myRole, ringSize);
+		return new RingoPacket(sourceIP, sourcePort, destIP, destPort, packetLength, seqNum, type, myRole);
+	}
+	
+	/**
+	 * Fills a recycled packet from the template for its type.
+	 * The packet is returned to the pool by the SenderThread once it has been sent,
+	 * so don't hold on to it after putting it into the send queue.
+	 * 
+	 * @param destIP IP Address of the destination Ringo
+	 * @param destPort Port of the destination Ringo
+	 * @param seqLength Sequence length to put in the packet
+	 * @param seqNum Sequence number to put in the packet
+	 * @param type One of PING_RES, RTT_RES, INIT_RES, KEEPALIVE, DATA_ACK, DATA_NACK
+	 * @return recyclable packet
+	 */
+	public RingoPacket makeTemplated(String destIP, int destPort, long seqLength, int seqNum, PacketType type) {
+		RingoPacket template = templates.get(type);
+		if (template == null)
+			throw new IllegalArgumentException("No template for " + type + " packets");
+		
+		RingoPacket packet = pool.acquire();
+		packet.replace(template);
+		packet.setDestIP(destIP);
+		packet.setDestPort(destPort);
+		packet.setSequenceLength(seqLength);
+		packet.setSequenceNumber(seqNum);
+		packet.setRecyclable(true);
+		return packet;
+	}
+	
+	/**
+	 * Takes an empty packet from the pool, e.g. to decode a received datagram into.
+	 * @return recyclable packet with undefined contents
+	 */
+	public RingoPacket acquire() {
+		RingoPacket packet = pool.acquire();
+		packet.setRecyclable(true);
+		return packet;
+	}
+	
+	/**
+	 * Returns a packet to the pool if it came from it. Other packets are ignored.
+	 * @param packet Packet that is no longer referenced by the caller
+	 */
+	public void release(RingoPacket packet) {
+		if (packet != null && packet.isRecyclable()) {
+			packet.setRecyclable(false);
+			pool.release(packet);
+		}
 	}
 
 }
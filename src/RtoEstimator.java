@@ -0,0 +1,126 @@
+/**
+ * Retransmission timeout of DATA windows to one next hop, estimated from
+ * the RTTs its DATA_ACKs show, after Jacobson and Karels (RFC 6298):
+ *
+ *   srtt = 7/8 srtt + 1/8 sample
+ *   rttvar = 3/4 rttvar + 1/4 |srtt - sample|
+ *   rto = srtt + max(G, 4 rttvar), within [MIN_RTO_MILLIS, MAX_RTO_MILLIS]
+ *
+ * Before the first sample the estimate may be seeded with the RTT measured
+ * to the hop while the ring was set up. Every timeout doubles the RTO until
+ * a new sample comes in, or an ack covers chunks that weren't acked before.
+ * Samples are only taken from chunks that were sent once (Karn's rule), see
+ * CongestionController.Flight, so after a go-back-N resend of a whole window
+ * only the second keeps the backoff from outlasting the loss.
+ *
+ * Not thread-safe; only the worker thread uses it.
+ */
+public class RtoEstimator {
+	/** Timeout before anything is known about the hop */
+	public static final long INITIAL_RTO_MILLIS = 500;
+
+	/** Shortest timeout, so a late ack on a fast hop isn't taken for a loss */
+	public static final long MIN_RTO_MILLIS = 50;
+
+	/** Longest timeout backing off may reach */
+	public static final long MAX_RTO_MILLIS = 2000;
+
+	/** Clock granularity G */
+	public static final long GRANULARITY_NANOS = 1000000L;
+
+	private long srttNanos;
+	private long rttvarNanos;
+	private long rtoNanos;
+	private boolean sampled;
+	private boolean known;
+
+	public RtoEstimator() {
+		this.srttNanos = 0;
+		this.rttvarNanos = 0;
+		this.rtoNanos = INITIAL_RTO_MILLIS * 1000000L;
+		this.sampled = false;
+		this.known = false;
+	}
+
+	/**
+	 * Starts the estimate off with an earlier measurement, unless there already are samples
+	 * @param rttMillis RTT to the hop measured while setting up the ring
+	 */
+	public void seed(long rttMillis) {
+		if (!this.sampled && rttMillis >= 0) {
+			first(rttMillis * 1000000L);
+		}
+	}
+
+	/**
+	 * Takes in the RTT of a chunk that was sent once
+	 * @param rttNanos Time from sending the chunk to its ack
+	 */
+	public void sample(long rttNanos) {
+		if (!this.sampled) {
+			first(rttNanos);
+			this.sampled = true;
+			return;
+		}
+		this.rttvarNanos += (Math.abs(this.srttNanos - rttNanos) - this.rttvarNanos) / 4;
+		this.srttNanos += (rttNanos - this.srttNanos) / 8;
+		update();
+	}
+
+	/**
+	 * Ends the backoff, since an ack covered chunks that weren't acked before
+	 */
+	public void progressed() {
+		if (this.known) {
+			update();
+		} else {
+			this.rtoNanos = INITIAL_RTO_MILLIS * 1000000L;
+		}
+	}
+
+	/**
+	 * Doubles the timeout after it expired
+	 */
+	public void backoff() {
+		this.rtoNanos = Math.min(this.rtoNanos * 2, MAX_RTO_MILLIS * 1000000L);
+	}
+
+	/**
+	 * @return Smoothed RTT in nanoseconds, 0 while nothing is known
+	 */
+	public long getSrttNanos() {
+		return this.srttNanos;
+	}
+
+	/**
+	 * @return Current timeout in nanoseconds
+	 */
+	public long getTimeoutNanos() {
+		return this.rtoNanos;
+	}
+
+	/**
+	 * @return Current timeout in milliseconds
+	 */
+	public long getTimeoutMillis() {
+		return (this.rtoNanos + 999999L) / 1000000L;
+	}
+
+	/**
+	 * @param rttNanos First measurement
+	 */
+	private void first(long rttNanos) {
+		this.srttNanos = rttNanos;
+		this.rttvarNanos = rttNanos / 2;
+		this.known = true;
+		update();
+	}
+
+	/**
+	 * Recomputes the timeout from srtt and rttvar, which also ends any backoff
+	 */
+	private void update() {
+		long rto = this.srttNanos + Math.max(GRANULARITY_NANOS, 4 * this.rttvarNanos);
+		this.rtoNanos = Math.max(MIN_RTO_MILLIS * 1000000L, Math.min(rto, MAX_RTO_MILLIS * 1000000L));
+	}
+}
@@ -0,0 +1,122 @@
+import java.util.ArrayList;
+
+/**
+ * What a selective-repeat sender knows about the chunks it has in flight:
+ * which of them the next Ringo reported in the SACK ranges of its acks.
+ *
+ * A chunk that isn't SACKed while at least DUP_THRESH chunks above it are
+ * counts as lost, the same conclusion as DUP_THRESH duplicate acks, and is
+ * fast-retransmitted once without waiting for the window to time out. A
+ * timeout resends only the chunks that aren't SACKed, and lets the lost
+ * ones be fast-retransmitted again.
+ *
+ * Sequence numbers are kept in a ring as large as the window, so only
+ * chunks in [base, base + capacity) can be marked.
+ *
+ * Not thread-safe.
+ */
+public class SackScoreboard {
+	/** Most SACK ranges a receiver puts in one ack */
+	public static final int MAX_RANGES = 4;
+
+	/** SACKed chunks above a missing one that make it count as lost */
+	public static final int DUP_THRESH = 3;
+
+	private boolean[] sacked;
+	private boolean[] resent;
+	private int base;
+	private int highest;
+
+	/**
+	 * @param capacity Chunks the sender has in flight at most
+	 * @param base First chunk not acked yet
+	 */
+	public SackScoreboard(int capacity, int base) {
+		this.sacked = new boolean[capacity];
+		this.resent = new boolean[capacity];
+		this.base = base;
+		this.highest = base;
+	}
+
+	/**
+	 * Slides the board past chunks that were cumulatively acked
+	 * @param base First chunk not acked yet
+	 */
+	public void advance(int base) {
+		if (base <= this.base) {
+			return;
+		}
+		int forgotten = Math.min(base - this.base, this.sacked.length);
+		for (int i = 0; i < forgotten; i++) {
+			int index = slot(this.base + i);
+			this.sacked[index] = false;
+			this.resent[index] = false;
+		}
+		this.base = base;
+		this.highest = Math.max(this.highest, base);
+	}
+
+	/**
+	 * Marks the chunks an ack reports as received
+	 * @param sack start, end pairs of an ack, or null
+	 * @param next Chunk after the last one sent
+	 */
+	public void update(int[] sack, int next) {
+		if (sack == null) {
+			return;
+		}
+		int limit = Math.min(next, this.base + this.sacked.length);
+		for (int i = 0; i + 1 < sack.length; i += 2) {
+			int end = Math.min(sack[i + 1], limit);
+			for (int seq = Math.max(sack[i], this.base); seq < end; seq++) {
+				this.sacked[slot(seq)] = true;
+			}
+			this.highest = Math.max(this.highest, end);
+		}
+	}
+
+	/**
+	 * @param seq Sequence number of a chunk in flight
+	 * @return true if the next Ringo reported it received
+	 */
+	public boolean isSacked(int seq) {
+		return seq >= this.base && seq < this.highest && this.sacked[slot(seq)];
+	}
+
+	/**
+	 * Finds the chunks that count as lost and weren't fast-retransmitted yet,
+	 * and records them as fast-retransmitted
+	 * @return Their sequence numbers
+	 */
+	public ArrayList<Integer> lost() {
+		ArrayList<Integer> lost = new ArrayList<Integer>();
+		int above = 0;
+		for (int seq = this.highest - 1; seq >= this.base; seq--) {
+			int index = slot(seq);
+			if (this.sacked[index]) {
+				above++;
+			} else if (above >= DUP_THRESH && !this.resent[index]) {
+				this.resent[index] = true;
+				lost.add(seq);
+			}
+		}
+		return lost;
+	}
+
+	/**
+	 * Lets every lost chunk be fast-retransmitted again, after the window timed out
+	 */
+	public void timedOut() {
+		for (int i = 0; i < this.resent.length; i++) {
+			this.resent[i] = false;
+		}
+	}
+
+	/**
+	 * @param seq Sequence number
+	 * @return Index of its place in the ring
+	 */
+	private int slot(int seq) {
+		return Math.floorMod(seq, this.sacked.length);
+	}
+}
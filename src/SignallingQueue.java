@@ -0,0 +1,50 @@
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A LinkedBlockingQueue that runs a callback whenever something is added,
+ * so a consumer blocked on something other than the queue (e.g. a Selector)
+ * can be woken up.
+ *
+ * @param <E> Type of queued elements
+ */
+public class SignallingQueue<E> extends LinkedBlockingQueue<E> {
+	private static final long serialVersionUID = 1L;
+
+	private volatile Runnable signal;
+
+	/**
+	 * @param signal Run after every successful add, or null for none
+	 */
+	public void setSignal(Runnable signal) {
+		this.signal = signal;
+	}
+
+	@Override
+	public boolean offer(E e) {
+		boolean added = super.offer(e);
+		if (added)
+			signal();
+		return added;
+	}
+
+	@Override
+	public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+		boolean added = super.offer(e, timeout, unit);
+		if (added)
+			signal();
+		return added;
+	}
+
+	@Override
+	public void put(E e) throws InterruptedException {
+		super.put(e);
+		signal();
+	}
+
+	private void signal() {
+		Runnable signal = this.signal;
+		if (signal != null)
+			signal.run();
+	}
+}
@@ -0,0 +1,217 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One timer thread shared by everything a Ringo schedules: window and
+ * retransmission timeouts, and keepalives.
+ *
+ * Timeouts are kept in a hashed wheel of SLOTS buckets, each one
+ * TICK_MILLIS wide. A timeout goes into the bucket of the tick it expires
+ * in, with the number of times the wheel has to go round first, so
+ * scheduling and cancelling are O(1) however many are pending, and only
+ * one bucket is looked at per tick. Timeouts fire up to a tick late, never
+ * early.
+ *
+ * Any thread may schedule or cancel. New timeouts are handed to the timer
+ * thread through a queue, and a cancelled one is only marked, it is
+ * dropped when the wheel next reaches its bucket.
+ *
+ * Tasks run on the timer thread and should only hand work off, e.g. wake
+ * an idle loop or queue a packet, so they don't hold up the others.
+ */
+public class TimerWheel implements Runnable {
+	/** Width of one tick */
+	public static final long TICK_MILLIS = 10;
+
+	/** Buckets in the wheel, one round is SLOTS * TICK_MILLIS */
+	public static final int SLOTS = 512;
+
+	private ArrayList<ArrayList<Timeout>> wheel;
+	private ConcurrentLinkedQueue<Timeout> incoming;
+	private long start;
+	private long tick;
+	private Thread thread;
+
+	public TimerWheel() {
+		this.wheel = new ArrayList<ArrayList<Timeout>>(SLOTS);
+		for (int i = 0; i < SLOTS; i++) {
+			this.wheel.add(new ArrayList<Timeout>());
+		}
+		this.incoming = new ConcurrentLinkedQueue<Timeout>();
+		this.start = System.nanoTime();
+		this.tick = 0;
+	}
+
+	/**
+	 * Starts the timer thread, once
+	 */
+	public synchronized void start() {
+		if (this.thread == null) {
+			this.thread = new Thread(this, "ringo-timer");
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+	}
+
+	/**
+	 * Runs a task once after a delay
+	 * @param task What to run, on the timer thread
+	 * @param delay How long to wait
+	 * @param unit Unit of delay
+	 * @return Handle to cancel the task with
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		return add(new Timeout(task, deadline(unit.toNanos(delay)), 0));
+	}
+
+	/**
+	 * Runs a task every period, the first time after a delay
+	 * @param task What to run, on the timer thread
+	 * @param delay How long to wait for the first run
+	 * @param period Time between the start of one run and the next
+	 * @param unit Unit of delay and period
+	 * @return Handle to stop the task with
+	 */
+	public Timeout scheduleAtFixedRate(Runnable task, long delay, long period, TimeUnit unit) {
+		return add(new Timeout(task, deadline(unit.toNanos(delay)), Math.max(unit.toNanos(period), 1)));
+	}
+
+	public void run() {
+		while (true) {
+			// wait for the current tick to come, without drifting
+			long sleep = this.start + this.tick * TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS) - System.nanoTime();
+			if (sleep > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+				continue;
+			}
+
+			Timeout timeout;
+			while ((timeout = this.incoming.poll()) != null) {
+				place(timeout, this.tick);
+			}
+
+			expire(this.wheel.get((int) (this.tick % SLOTS)));
+			this.tick++;
+		}
+	}
+
+	/**
+	 * @param timeout New timeout
+	 * @return timeout
+	 */
+	private Timeout add(Timeout timeout) {
+		this.incoming.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * @param delayNanos Delay from now
+	 * @return Deadline in nanoseconds since the wheel started
+	 */
+	private long deadline(long delayNanos) {
+		return System.nanoTime() - this.start + Math.max(delayNanos, 0);
+	}
+
+	/**
+	 * Puts a timeout into the bucket of the tick it expires in. Only the timer thread calls this.
+	 * @param timeout Timeout that isn't in the wheel
+	 * @param earliest First tick whose bucket hasn't been expired yet
+	 */
+	private void place(Timeout timeout, long earliest) {
+		if (timeout.cancelled) {
+			return;
+		}
+		// round up, so a timeout never fires early, and one that is already due goes into the next bucket expired
+		long expires = Math.max((timeout.deadline + TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS) - 1) / TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS), earliest);
+		timeout.rounds = (expires - earliest) / SLOTS;
+		this.wheel.get((int) (expires % SLOTS)).add(timeout);
+	}
+
+	/**
+	 * Runs the timeouts of the current tick, and counts down the others in its bucket
+	 * @param bucket Bucket of the current tick
+	 */
+	private void expire(ArrayList<Timeout> bucket) {
+		ArrayList<Timeout> again = null;
+		Iterator<Timeout> iter = bucket.iterator();
+		while (iter.hasNext()) {
+			Timeout timeout = iter.next();
+			if (timeout.cancelled) {
+				iter.remove();
+			} else if (timeout.rounds > 0) {
+				timeout.rounds--;
+			} else {
+				iter.remove();
+				try {
+					timeout.task.run();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+				if (timeout.period > 0) {
+					timeout.deadline += timeout.period;
+					if (again == null) {
+						again = new ArrayList<Timeout>();
+					}
+					again.add(timeout);
+				} else {
+					timeout.expired = true;
+				}
+			}
+		}
+
+		if (again != null) {
+			// this bucket is done, so they go into a later one
+			for (Timeout timeout : again) {
+				place(timeout, this.tick + 1);
+			}
+		}
+	}
+
+	/**
+	 * A scheduled task, and the handle to cancel it
+	 */
+	public static class Timeout {
+		private Runnable task;
+		private long deadline;
+		private long period;
+		private long rounds;
+		private volatile boolean cancelled;
+		private volatile boolean expired;
+
+		/**
+		 * @param task What to run
+		 * @param deadline Nanoseconds since the wheel started
+		 * @param period Nanoseconds between runs, 0 to run once
+		 */
+		private Timeout(Runnable task, long deadline, long period) {
+			this.task = task;
+			this.deadline = deadline;
+			this.period = period;
+			this.rounds = 0;
+			this.cancelled = false;
+			this.expired = false;
+		}
+
+		/**
+		 * Keeps the task from running, or from running again if it is periodic
+		 * @return false if it already ran once and for all
+		 */
+		public boolean cancel() {
+			this.cancelled = true;
+			return !this.expired;
+		}
+
+		/**
+		 * @return true if cancel() was called
+		 */
+		public boolean isCancelled() {
+			return this.cancelled;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that WorkerThread.transmitWindow returns as soon as its window is
+ * fully acked, rather than waiting the window out and timing it out again.
+ *
+ * A fake next Ringo takes the DATA packets off the send queue and acks them
+ * cumulatively, as a FORWARDER does, so the window ends with an ack of its
+ * last chunk rather than the one past it that a RECEIVER adds.
+ * The window has to be done within one RTO: INITIAL_RTO_MILLIS for a hop
+ * nothing is known about yet, then MIN_RTO_MILLIS once its RTT is sampled.
+ * Each window is checked with go-back-N and with selective repeat.
+ *
+ * Run with: java TransmitWindowCheck
+ * Exits with status 1 if any check fails.
+ */
+public class TransmitWindowCheck {
+	private static final String HOST = "127.0.0.1";
+	private static final int LOCAL_PORT = 5001;
+	private static final int NEXT_PORT = 5002;
+	private static final int CHUNKS = 50;
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		for (String arq : new String[] { "gbn", "sr" }) {
+			// backoff rather than block, the fake hop can't wake the worker
+			RingoConfig config = RingoConfig.parse(new String[] { "idle=backoff", "arq=" + arq }, 0);
+			Ringo ringo = new Ringo(Role.SENDER, LOCAL_PORT, null, 0, 3, null, new LinkedBlockingQueue<String>(), config);
+			ringo.getTimers().start();
+
+			LinkedBlockingQueue<RingoPacket> sendQueue = new LinkedBlockingQueue<RingoPacket>();
+			PacketMailbox recvQueue = new PacketMailbox(new PeerRegistry());
+			Ringo.WorkerThread worker = ringo.new WorkerThread(Role.SENDER, sendQueue, recvQueue, new ArrayList<String>(), HOST, LOCAL_PORT,
+					new LinkedBlockingQueue<String>(), new LinkedBlockingQueue<String>(), null);
+
+			Thread hop = new Thread(() -> ackEverything(sendQueue, recvQueue), "next-hop");
+			hop.setDaemon(true);
+			hop.start();
+
+			timeWindow(worker, recvQueue, "first window, arq=" + arq, RtoEstimator.INITIAL_RTO_MILLIS);
+			timeWindow(worker, recvQueue, "second window, arq=" + arq, RtoEstimator.MIN_RTO_MILLIS);
+		}
+
+		if (failures > 0) {
+			System.out.println(failures + " check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+	}
+
+	/**
+	 * Sends a window of CHUNKS chunks and checks how long it took
+	 * @param worker Worker to send it with
+	 * @param recvQueue Where the worker looks for acks
+	 * @param name What the window is, for the output
+	 * @param rtoMillis Longest it may take
+	 * @throws InterruptedException if interrupted while the last window's acks settle
+	 */
+	private static void timeWindow(Ringo.WorkerThread worker, PacketMailbox recvQueue, String name, long rtoMillis) throws InterruptedException {
+		RingoPacket[] window = new RingoPacket[CHUNKS];
+		for (int i = 0; i < window.length; i++) {
+			window[i] = new RingoPacket(HOST, LOCAL_PORT, HOST, NEXT_PORT, window.length, i, PacketType.DATA, Role.SENDER);
+			window[i].setPayload(ByteBuffer.allocate(16));
+		}
+
+		// as the callers of transmitWindow do, drop what is left of the last window's acks
+		Thread.sleep(100);
+		recvQueue.discard(PacketType.DATA_ACK, HOST, NEXT_PORT);
+
+		long start = System.nanoTime();
+		int highestAck = worker.transmitWindow(window, window.length - 1);
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		System.out.println(String.format("%-28s %4d ms (RTO %d ms)", name, millis, rtoMillis));
+		check(highestAck >= window.length - 1, name + " returned with only " + (highestAck + 1) + " of " + window.length + " chunks acked");
+		check(millis < rtoMillis, name + " took " + millis + " ms, longer than one RTO");
+	}
+
+	/**
+	 * Acts as the next Ringo: acks every DATA packet cumulatively
+	 * @param sendQueue Where the worker puts its DATA packets
+	 * @param recvQueue Where the worker looks for acks
+	 */
+	private static void ackEverything(LinkedBlockingQueue<RingoPacket> sendQueue, PacketMailbox recvQueue) {
+		int next = 0;
+		while (true) {
+			RingoPacket data;
+			try {
+				data = sendQueue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (data.getSequenceNumber() == 0) {
+				// a new window
+				next = 0;
+			}
+			if (data.getSequenceNumber() == next) {
+				next++;
+			}
+			recvQueue.add(ack(next - 1));
+		}
+	}
+
+	/**
+	 * @param seq Highest chunk received in order
+	 * @return DATA_ACK from the next Ringo
+	 */
+	private static RingoPacket ack(int seq) {
+		return new RingoPacket(HOST, NEXT_PORT, HOST, LOCAL_PORT, 0, seq, PacketType.DATA_ACK, Role.FORWARDER);
+	}
+
+	/**
+	 * @param ok Outcome of a check
+	 * @param message What went wrong if it failed
+	 */
+	private static void check(boolean ok, String message) {
+		if (!ok) {
+			System.out.println("FAILED: " + message);
+			failures++;
+		}
+	}
+}